@@ -0,0 +1,275 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import io.scif.services.DatasetIOService;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.ScriptException;
+
+import matlabcontrol.extensions.MatlabNumericArray;
+import net.imagej.Dataset;
+
+import org.scijava.log.LogService;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Runs a MATLAB script over a list of image files as a three stage pipeline:
+ * <ol>
+ * <li>A reader thread opens each file and converts it to a MATLAB array.</li>
+ * <li>The calling thread, which must be allowed to talk to MATLAB, assigns
+ * each array to the {@code data} variable, runs the script, and collects the
+ * {@code result} variable if the script set one.</li>
+ * <li>A writer thread converts each result back to a {@link Dataset} and
+ * saves it to the output directory.</li>
+ * </ol>
+ * The stages are connected by small bounded queues, so reading and writing
+ * overlap with the script while a slow stage holds back the others instead
+ * of letting data pile up in memory.
+ * <p>
+ * The reader and writer threads live as long as the batch, so they come from
+ * the {@link ThreadService} rather than from the bounded transfer executor,
+ * which they would otherwise starve of the threads their conversions and the
+ * other commands need.
+ * </p>
+ */
+class BatchPipeline {
+
+	/** Variable holding the current input image while the script runs. */
+	static final String INPUT = "data";
+
+	/** Variable read back as output image after the script ran. */
+	static final String OUTPUT = "result";
+
+	/** Capacity of the queues between stages. */
+	private static final int CAPACITY = 2;
+
+	/**
+	 * How long to wait on a queue before checking whether the stage on the
+	 * other side is still alive, in milliseconds.
+	 */
+	private static final long POLL = 200;
+
+	private static final Item END = new Item(null, null);
+
+	private final DatasetIOService datasetIOService;
+
+	private final ImageJMATLABService ijmService;
+
+	private final ThreadService threadService;
+
+	private final LogService logService;
+
+	private final MATLABWorkspace workspace;
+
+	BatchPipeline(final DatasetIOService datasetIOService,
+		final ImageJMATLABService ijmService, final ThreadService threadService,
+		final LogService logService, final MATLABWorkspace workspace)
+	{
+		this.datasetIOService = datasetIOService;
+		this.ijmService = ijmService;
+		this.threadService = threadService;
+		this.logService = logService;
+		this.workspace = workspace;
+	}
+
+	/**
+	 * Runs the given script on each of the given files, saving results into
+	 * the given directory. Files which fail at any stage are logged and
+	 * skipped.
+	 *
+	 * @return The number of results saved.
+	 */
+	int run(final String[] files, final String script, final String outputDir)
+		throws InterruptedException
+	{
+		final BlockingQueue<Item> inputs = new ArrayBlockingQueue<>(CAPACITY);
+		final BlockingQueue<Item> outputs = new ArrayBlockingQueue<>(CAPACITY);
+
+		final Future<?> reader = threadService.run(() -> read(files, inputs));
+		final Future<Integer> writer = threadService.run(() -> write(outputs,
+			outputDir));
+
+		try {
+			while (true) {
+				final Item item = take(inputs, reader);
+				if (item == END) break;
+				final MatlabNumericArray result = process(item, script);
+				if (result != null) put(outputs, new Item(item.path, result), writer);
+			}
+			put(outputs, END, writer);
+			return writer.get();
+		}
+		catch (final ExecutionException exc) {
+			logService.error("Batch processing failed", exc.getCause());
+			return 0;
+		}
+		finally {
+			reader.cancel(true);
+			writer.cancel(true);
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Takes the next input, without waiting forever on a reader which died
+	 * before queueing {@link #END}. Inputs queued before the reader failed are
+	 * still processed.
+	 */
+	private Item take(final BlockingQueue<Item> inputs, final Future<?> reader)
+		throws InterruptedException
+	{
+		while (true) {
+			final Item item = inputs.poll(POLL, TimeUnit.MILLISECONDS);
+			if (item != null) return item;
+			if (!reader.isDone()) continue;
+
+			// Nothing is queued after the reader finished
+			final Item left = inputs.poll();
+			if (left != null) return left;
+			try {
+				reader.get();
+			}
+			catch (final ExecutionException exc) {
+				logService.error("Batch reader failed", exc.getCause());
+			}
+			return END;
+		}
+	}
+
+	/**
+	 * Hands an item to the writer, without waiting forever on a full queue if
+	 * the writer died.
+	 *
+	 * @throws ExecutionException If the writer failed.
+	 */
+	private static void put(final BlockingQueue<Item> outputs, final Item item,
+		final Future<Integer> writer) throws InterruptedException,
+		ExecutionException
+	{
+		while (!outputs.offer(item, POLL, TimeUnit.MILLISECONDS)) {
+			if (writer.isDone()) {
+				writer.get();
+				return;
+			}
+		}
+	}
+
+	/** Reader stage: opens and converts each file. */
+	private void read(final String[] files, final BlockingQueue<Item> inputs) {
+		try {
+			for (final String path : files) {
+				final MatlabNumericArray array;
+				try {
+					array = ijmService.getArray(datasetIOService.open(path));
+				}
+				catch (final IOException | RuntimeException exc) {
+					logService.error("Could not open " + path, exc);
+					continue;
+				}
+				inputs.put(new Item(path, array));
+			}
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			// Also reached on errors such as OutOfMemoryError. If the queue is
+			// full, the MATLAB stage notices that the reader is done instead.
+			inputs.offer(END);
+		}
+	}
+
+	/** MATLAB stage: runs the script on one input. */
+	private MatlabNumericArray process(final Item item, final String script) {
+		try {
+			workspace.clear(OUTPUT);
+			workspace.put(INPUT, item.array);
+			workspace.eval(script);
+			final Object result = workspace.get(OUTPUT);
+			return result instanceof MatlabNumericArray ? //
+				(MatlabNumericArray) result : null;
+		}
+		catch (final ScriptException exc) {
+			logService.error("Script failed on " + item.path, exc);
+			return null;
+		}
+	}
+
+	/** Writer stage: converts and saves each result. */
+	private int write(final BlockingQueue<Item> outputs, final String outputDir)
+		throws InterruptedException
+	{
+		int count = 0;
+		while (true) {
+			final Item item = outputs.take();
+			if (item == END) return count;
+
+			final File out = new File(outputDir, baseName(item.path) + ".tif");
+			try {
+				final Dataset dataset = ijmService.getDataset(item.array);
+				dataset.setName(out.getName());
+				datasetIOService.save(dataset, out.getPath());
+				count++;
+			}
+			catch (final IOException | RuntimeException exc) {
+				logService.error("Could not save " + out, exc);
+			}
+		}
+	}
+
+	private static String baseName(final String path) {
+		final String name = new File(path).getName();
+		final int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+
+	// -- Helper classes --
+
+	/** A file path along with the array read from or destined to it. */
+	private static class Item {
+
+		private final String path;
+		private final MatlabNumericArray array;
+
+		private Item(final String path, final MatlabNumericArray array) {
+			this.path = path;
+			this.array = array;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded pool of reusable conversion buffers, such as primitive arrays
+ * and {@link net.imagej.Dataset}s, keyed by their type and shape.
+ * <p>
+ * Loops converting many images of the same shape can then recycle the same
+ * few buffers, rather than allocating new ones for the garbage collector to
+ * reclaim at every iteration. When the pool exceeds its budget, the buffers
+ * of the least recently used shapes are dropped first.
+ * </p>
+ */
+class BufferPool {
+
+	/** Buffers waiting to be reused, by key, least recently used first. */
+	private final Map<String, Deque<Entry>> buffers = new LinkedHashMap<>(16,
+		0.75f, true);
+
+	private final long maxBytes;
+
+	private long bytes;
+
+	/**
+	 * @param maxBytes Budget of the pooled buffers, in bytes.
+	 */
+	BufferPool(final long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Takes a buffer of the given type and shape out of the pool.
+	 *
+	 * @param type The class of the buffer, e.g. {@code double[][].class}.
+	 * @return A previously released buffer, whose content is left as is, or
+	 *         null if there is none.
+	 */
+	synchronized <T> T take(final Class<T> type, final long[] dims) {
+		final Deque<Entry> entries = buffers.get(key(type, dims));
+		if (entries == null || entries.isEmpty()) return null;
+		final Entry entry = entries.pop();
+		bytes -= entry.bytes;
+		return type.cast(entry.buffer);
+	}
+
+	/**
+	 * Puts a buffer which is no longer used into the pool. Buffers larger than
+	 * the whole budget are not kept.
+	 *
+	 * @param type The class under which to reuse the buffer.
+	 * @param dims The shape under which to reuse the buffer.
+	 * @param size The memory held by the buffer, in bytes.
+	 */
+	synchronized void release(final Class<?> type, final Object buffer,
+		final long[] dims, final long size)
+	{
+		if (size > maxBytes) return;
+		final String key = key(type, dims);
+		Deque<Entry> entries = buffers.get(key);
+		if (entries == null) {
+			entries = new ArrayDeque<>();
+			buffers.put(key, entries);
+		}
+		for (final Entry entry : entries) {
+			// releasing twice would hand out the same buffer twice
+			if (entry.buffer == buffer) return;
+		}
+		entries.push(new Entry(buffer, size));
+		bytes += size;
+
+		final Iterator<Deque<Entry>> eldest = buffers.values().iterator();
+		while (bytes > maxBytes && eldest.hasNext()) {
+			final Deque<Entry> dropped = eldest.next();
+			while (bytes > maxBytes && !dropped.isEmpty()) {
+				bytes -= dropped.removeLast().bytes;
+			}
+			if (dropped.isEmpty()) eldest.remove();
+		}
+	}
+
+	/** Gets the memory held by the pooled buffers, in bytes. */
+	synchronized long bytes() {
+		return bytes;
+	}
+
+	/** Drops all pooled buffers. */
+	synchronized void clear() {
+		buffers.clear();
+		bytes = 0;
+	}
+
+	// -- Helper methods --
+
+	private static String key(final Class<?> type, final long[] dims) {
+		return type.getName() + Arrays.toString(dims);
+	}
+
+	// -- Helper classes --
+
+	private static class Entry {
+
+		private final Object buffer;
+		private final long bytes;
+
+		private Entry(final Object buffer, final long bytes) {
+			this.buffer = buffer;
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.lang.reflect.Array;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Conversion kernels changing the type and intensity range of pixel data in
+ * the same pass as copying it, e.g. from {@code uint16} to {@code single}
+ * normalized to [0, 1], so that MATLAB does not need another pass over the
+ * data.
+ * <p>
+ * Each element is mapped to {@code v * scale + offset}, saturated to the
+ * range of the target class and, for integer classes, rounded half away
+ * from zero as MATLAB does. Array and planar images are read straight from
+ * their primitive storage, in blocks: a loop per source type widens a block
+ * to {@code double}s, then a loop per target type scales, clamps and narrows
+ * it. Both are plain counted loops over primitive arrays, the form the JIT
+ * unrolls and vectorizes best, and the block stays in cache between them.
+ * Other images are read element by element in a single fused loop.
+ * </p>
+ */
+public final class ConversionKernels {
+
+	/** Number of elements converted per block. */
+	private static final int BLOCK = 4096;
+
+	/** 2^63, the first value beyond the range of {@code long}. */
+	private static final double TWO_63 = 0x1p63;
+
+	private ConversionKernels() {
+		// NB: prevent instantiation of utility class.
+	}
+
+	/**
+	 * Gets the scale and offset mapping the range of an image to the range of
+	 * a MATLAB class: [0, 1] for {@code single} and {@code double}, the full
+	 * range for integer classes. The range of an integer image is that of its
+	 * type, e.g. [0, 65535] for {@code uint16}; the range of a floating point
+	 * image is that of its values, found with an extra pass.
+	 *
+	 * @return The scale and the offset, in this order.
+	 */
+	public static double[] normalization(
+		final RandomAccessibleInterval<? extends RealType<?>> image,
+		final String matlabClass)
+	{
+		final RealType<?> type = Util.getTypeFromInterval(image);
+		double min = type.getMinValue(), max = type.getMaxValue();
+		if (isFloatingPoint(MATLABArrays.matlabClass(type))) {
+			min = Double.POSITIVE_INFINITY;
+			max = Double.NEGATIVE_INFINITY;
+			for (final RealType<?> t : Views.iterable(image)) {
+				final double v = t.getRealDouble();
+				if (v < min) min = v;
+				if (v > max) max = v;
+			}
+		}
+
+		final double[] target = isFloatingPoint(matlabClass) ? new double[] { 0,
+			1 } : range(MATLABTypedArray.elementType(matlabClass), matlabClass
+				.startsWith("uint"));
+		final double scale = max > min ? (target[1] - target[0]) / (max - min)
+			: 0;
+		return new double[] { scale, target[0] - min * scale };
+	}
+
+	/**
+	 * Converts an image into the given typed array, in a single pass.
+	 *
+	 * @param dest An array of the size of the image, of any class.
+	 * @return The given array.
+	 */
+	public static MATLABTypedArray convert(
+		final RandomAccessibleInterval<? extends RealType<?>> image,
+		final MATLABTypedArray dest, final double scale, final double offset)
+	{
+		final Object data = dest.getData();
+		final String srcClass = MATLABArrays.matlabClass(Util
+			.getTypeFromInterval(image));
+		final boolean unsigned = srcClass.startsWith("uint");
+		final Class<?> srcType = srcClass.equals("logical") ? null
+			: MATLABTypedArray.elementType(srcClass);
+
+		final Object[] segments = storage(image, srcType);
+		if (segments != null) {
+			int offsetInDest = 0;
+			for (final Object segment : segments) {
+				final int length = Array.getLength(segment);
+				convert(segment, unsigned, 0, data, dest.isUnsigned(), offsetInDest,
+					length, scale, offset);
+				offsetInDest += length;
+			}
+			return dest;
+		}
+
+		// Cell images, views and bit images: one fused loop
+		final double[] bounds = range(data.getClass().getComponentType(), dest
+			.isUnsigned());
+		final double[] block = new double[Math.min(BLOCK, dest.length())];
+		final Cursor<? extends RealType<?>> cursor = Views.flatIterable(image)
+			.cursor();
+		for (int start = 0; start < dest.length(); start += block.length) {
+			final int n = Math.min(block.length, dest.length() - start);
+			for (int i = 0; i < n; i++) {
+				block[i] = cursor.next().getRealDouble();
+			}
+			write(block, n, data, dest.isUnsigned(), start, scale, offset,
+				bounds[0], bounds[1]);
+		}
+		return dest;
+	}
+
+	/**
+	 * Converts elements of one primitive array into another, e.g. a
+	 * {@code short[]} holding {@code uint16} values into a {@code float[]}.
+	 *
+	 * @param srcUnsigned Whether integer source elements are unsigned.
+	 * @param destUnsigned Whether integer target elements are unsigned, which
+	 *          sets the range they saturate to.
+	 */
+	public static void convert(final Object src, final boolean srcUnsigned,
+		final int srcOffset, final Object dest, final boolean destUnsigned,
+		final int destOffset, final int length, final double scale,
+		final double offset)
+	{
+		final double[] bounds = range(dest.getClass().getComponentType(),
+			destUnsigned);
+		final double[] block = new double[Math.min(BLOCK, length)];
+		for (int start = 0; start < length; start += block.length) {
+			final int n = Math.min(block.length, length - start);
+			read(src, srcUnsigned, srcOffset + start, block, n);
+			write(block, n, dest, destUnsigned, destOffset + start, scale, offset,
+				bounds[0], bounds[1]);
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Widens elements of a primitive array into a block of doubles. */
+	private static void read(final Object src, final boolean unsigned,
+		final int offset, final double[] block, final int n)
+	{
+		if (src instanceof double[]) {
+			System.arraycopy(src, offset, block, 0, n);
+		}
+		else if (src instanceof float[]) {
+			final float[] s = (float[]) src;
+			for (int i = 0; i < n; i++) {
+				block[i] = s[offset + i];
+			}
+		}
+		else if (src instanceof long[]) {
+			final long[] s = (long[]) src;
+			for (int i = 0; i < n; i++) {
+				final long v = s[offset + i];
+				block[i] = unsigned && v < 0 ? (v >>> 1) * 2.0 + (v & 1) : v;
+			}
+		}
+		else if (src instanceof int[]) {
+			final int[] s = (int[]) src;
+			if (unsigned) {
+				for (int i = 0; i < n; i++) {
+					block[i] = s[offset + i] & 0xffffffffL;
+				}
+			}
+			else {
+				for (int i = 0; i < n; i++) {
+					block[i] = s[offset + i];
+				}
+			}
+		}
+		else if (src instanceof short[]) {
+			final short[] s = (short[]) src;
+			if (unsigned) {
+				for (int i = 0; i < n; i++) {
+					block[i] = s[offset + i] & 0xffff;
+				}
+			}
+			else {
+				for (int i = 0; i < n; i++) {
+					block[i] = s[offset + i];
+				}
+			}
+		}
+		else if (src instanceof byte[]) {
+			final byte[] s = (byte[]) src;
+			if (unsigned) {
+				for (int i = 0; i < n; i++) {
+					block[i] = s[offset + i] & 0xff;
+				}
+			}
+			else {
+				for (int i = 0; i < n; i++) {
+					block[i] = s[offset + i];
+				}
+			}
+		}
+		else {
+			final boolean[] s = (boolean[]) src;
+			for (int i = 0; i < n; i++) {
+				block[i] = s[offset + i] ? 1 : 0;
+			}
+		}
+	}
+
+	/**
+	 * Scales, saturates and narrows a block of doubles into a primitive array.
+	 * Integers are rounded half away from zero; NaN becomes 0, as in MATLAB.
+	 */
+	private static void write(final double[] block, final int n,
+		final Object dest, final boolean unsigned, final int offset,
+		final double scale, final double shift, final double min,
+		final double max)
+	{
+		if (dest instanceof double[]) {
+			final double[] d = (double[]) dest;
+			for (int i = 0; i < n; i++) {
+				d[offset + i] = block[i] * scale + shift;
+			}
+		}
+		else if (dest instanceof float[]) {
+			final float[] d = (float[]) dest;
+			for (int i = 0; i < n; i++) {
+				d[offset + i] = (float) (block[i] * scale + shift);
+			}
+		}
+		else if (dest instanceof long[]) {
+			final long[] d = (long[]) dest;
+			for (int i = 0; i < n; i++) {
+				final double v = round(block[i] * scale + shift, min, max);
+				// unsigned values from 2^63 on wrap into the negative longs
+				d[offset + i] = unsigned && v >= TWO_63 ? (long) (v - TWO_63) ^
+					Long.MIN_VALUE : (long) v;
+			}
+		}
+		else if (dest instanceof int[]) {
+			final int[] d = (int[]) dest;
+			for (int i = 0; i < n; i++) {
+				d[offset + i] = (int) (long) round(block[i] * scale + shift, min, max);
+			}
+		}
+		else if (dest instanceof short[]) {
+			final short[] d = (short[]) dest;
+			for (int i = 0; i < n; i++) {
+				d[offset + i] = (short) (int) round(block[i] * scale + shift, min,
+					max);
+			}
+		}
+		else if (dest instanceof byte[]) {
+			final byte[] d = (byte[]) dest;
+			for (int i = 0; i < n; i++) {
+				d[offset + i] = (byte) (int) round(block[i] * scale + shift, min,
+					max);
+			}
+		}
+		else {
+			final boolean[] d = (boolean[]) dest;
+			for (int i = 0; i < n; i++) {
+				d[offset + i] = block[i] * scale + shift != 0;
+			}
+		}
+	}
+
+	/** Saturates a value to the given range, then rounds it. */
+	private static double round(final double v, final double min,
+		final double max)
+	{
+		final double clamped = v < min ? min : v > max ? max : v;
+		return clamped < 0 ? Math.ceil(clamped - 0.5) : Math.floor(clamped +
+			0.5);
+	}
+
+	/**
+	 * Gets the primitive arrays storing the elements of an array or planar
+	 * image, possibly wrapped in a {@link net.imagej.Dataset} or
+	 * {@link net.imagej.ImgPlus}, in flat iteration order, or null if it has no
+	 * such storage of the given element type.
+	 */
+	private static Object[] storage(
+		final RandomAccessibleInterval<? extends RealType<?>> image,
+		final Class<?> elementType)
+	{
+		if (elementType == null) return null;
+		final RandomAccessibleInterval<?> img = MATLABArrays.storageImg(image);
+		final Object[] segments;
+		if (img instanceof ArrayImg) {
+			segments = new Object[] { ((ArrayDataAccess<?>) ((ArrayImg<?, ?>) img)
+				.update(null)).getCurrentStorageArray() };
+		}
+		else if (img instanceof PlanarImg) {
+			final PlanarImg<?, ?> planar = (PlanarImg<?, ?>) img;
+			segments = new Object[planar.numSlices()];
+			for (int i = 0; i < segments.length; i++) {
+				segments[i] = ((ArrayDataAccess<?>) planar.getPlane(i))
+					.getCurrentStorageArray();
+			}
+		}
+		else return null;
+
+		for (final Object segment : segments) {
+			if (segment.getClass().getComponentType() != elementType) return null;
+		}
+		return segments;
+	}
+
+	/** Gets the range of the given primitive type, signed or not. */
+	private static double[] range(final Class<?> type, final boolean unsigned) {
+		if (type == byte.class) {
+			return unsigned ? new double[] { 0, 255 } : new double[] { -128, 127 };
+		}
+		if (type == short.class) {
+			return unsigned ? new double[] { 0, 65535 } : new double[] { -32768,
+				32767 };
+		}
+		if (type == int.class) {
+			return unsigned ? new double[] { 0, 4294967295d } : new double[] {
+				Integer.MIN_VALUE, Integer.MAX_VALUE };
+		}
+		if (type == long.class) {
+			// NB: the largest doubles below 2^64 and 2^63 respectively
+			return unsigned ? new double[] { 0, Math.nextDown(2 * TWO_63) }
+				: new double[] { -TWO_63, Math.nextDown(TWO_63) };
+		}
+		if (type == boolean.class) return new double[] { 0, 1 };
+		return new double[] { Double.NEGATIVE_INFINITY,
+			Double.POSITIVE_INFINITY };
+	}
+
+	private static boolean isFloatingPoint(final String matlabClass) {
+		return matlabClass.equals("single") || matlabClass.equals("double");
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import matlabcontrol.extensions.MatlabNumericArray;
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Warms up the conversion code paths, so that the first real transfer runs
+ * compiled code rather than interpreted code.
+ * <p>
+ * Each round converts small synthetic {@link Dataset}s of every supported
+ * pixel type and of ranks two to four, both ways, through the
+ * {@link ImageJMATLABService}: to nested double arrays and back, to typed
+ * arrays and back, with type conversion and rescaling, and plane by plane.
+ * After enough rounds the JIT has compiled the loops involved, whatever the
+ * size of the images they later see. Nothing is sent to MATLAB.
+ * </p>
+ */
+class ConversionWarmup {
+
+	/** Number of times each conversion is exercised. */
+	static final int ROUNDS = 200;
+
+	/** Sizes of the synthetic images, one per rank. */
+	private static final long[][] DIMS = { { 16, 16 }, { 16, 8, 4 }, { 8, 8, 2,
+		2 } };
+
+	private static final String[] CLASSES = { "uint8", "uint16", "single",
+		"double" };
+
+	private ConversionWarmup() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Runs the warm-up on the calling thread.
+	 *
+	 * @param cancelled Checked between rounds to stop early, e.g. once the
+	 *          context is disposed.
+	 */
+	static void run(final ImageJMATLABService ijmService,
+		final DatasetService datasetService, final BooleanSupplier cancelled)
+	{
+		final Dataset[] datasets = datasets(datasetService);
+		for (int round = 0; round < ROUNDS; round++) {
+			for (final Dataset dataset : datasets) {
+				if (cancelled.getAsBoolean()) return;
+				exercise(ijmService, dataset);
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	private static void exercise(final ImageJMATLABService ijmService,
+		final Dataset dataset)
+	{
+		final MatlabNumericArray array = ijmService.getArray(dataset);
+		ijmService.release(ijmService.getDataset(array));
+
+		final MATLABTypedArray typed = ijmService.getTypedArray(dataset);
+		ijmService.getImgPlus(typed);
+		ijmService.release(typed);
+
+		for (final String matlabClass : CLASSES) {
+			ijmService.release(ijmService.getNormalizedArray(dataset,
+				matlabClass));
+		}
+
+		final long[] checksums = ijmService.getPlaneChecksums(dataset);
+		ijmService.getPlaneArray(dataset, checksums.length - 1);
+	}
+
+	private static Dataset[] datasets(final DatasetService datasetService) {
+		final List<Dataset> datasets = new ArrayList<>();
+		for (final long[] dims : DIMS) {
+			datasets.add(create(datasetService, new BitType(), dims));
+			datasets.add(create(datasetService, new UnsignedByteType(), dims));
+			datasets.add(create(datasetService, new ByteType(), dims));
+			datasets.add(create(datasetService, new UnsignedShortType(), dims));
+			datasets.add(create(datasetService, new ShortType(), dims));
+			datasets.add(create(datasetService, new UnsignedIntType(), dims));
+			datasets.add(create(datasetService, new IntType(), dims));
+			datasets.add(create(datasetService, new LongType(), dims));
+			datasets.add(create(datasetService, new FloatType(), dims));
+			datasets.add(create(datasetService, new DoubleType(), dims));
+		}
+		return datasets.toArray(new Dataset[datasets.size()]);
+	}
+
+	/** Creates a {@link Dataset} of alternating nonzero values. */
+	private static <T extends RealType<T> & NativeType<T>> Dataset create(
+		final DatasetService datasetService, final T type, final long[] dims)
+	{
+		final Dataset dataset = datasetService.create(type, dims, "Warm-up",
+			MATLABArrays.axes(dims.length));
+		int value = 0;
+		for (final RealType<?> t : dataset) {
+			t.setReal(value++ % 2 + 1);
+		}
+		return dataset;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import net.imagej.Dataset;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.cell.CellImg;
+import net.imglib2.img.planar.PlanarImg;
+
+/**
+ * Registry of the {@link Dataset}s created for transfers from MATLAB, so
+ * that they can be cleaned up once they are no longer in use.
+ * <p>
+ * Datasets are only weakly referenced, so the registry never keeps one
+ * alive by itself. For each one it records when it was last used, and an
+ * optional cleanup action, e.g. clearing the MATLAB variable a lazy view
+ * reads from, to run when it is released. The cleanup actions of
+ * {@link Dataset}s garbage collected without being released are handed out
+ * by {@link #collected()}.
+ * </p>
+ */
+class DatasetRegistry {
+
+	private final Map<Dataset, Entry> entries = new WeakHashMap<>();
+
+	/**
+	 * Entries with a cleanup action, held until it runs, as an entry which is
+	 * not reachable itself is never enqueued.
+	 */
+	private final Set<Entry> pending = new HashSet<>();
+
+	private final ReferenceQueue<Dataset> queue = new ReferenceQueue<>();
+
+	/**
+	 * Starts tracking a {@link Dataset}, as used now.
+	 *
+	 * @param cleanup Action to run when the {@link Dataset} is released, or
+	 *          null.
+	 */
+	synchronized void track(final Dataset dataset, final Runnable cleanup) {
+		final Entry entry = new Entry(dataset, queue, cleanup, System
+			.currentTimeMillis());
+		forget(entries.put(dataset, entry));
+		if (cleanup != null) pending.add(entry);
+	}
+
+	/** Records that a tracked {@link Dataset} was used. */
+	synchronized void touch(final Dataset dataset) {
+		final Entry entry = entries.get(dataset);
+		if (entry != null) entry.lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Stops tracking a {@link Dataset}.
+	 *
+	 * @return Its cleanup action, to be run by the caller, or null if there is
+	 *         none or the {@link Dataset} was not tracked.
+	 */
+	synchronized Runnable untrack(final Dataset dataset) {
+		final Entry entry = entries.remove(dataset);
+		forget(entry);
+		return entry == null ? null : entry.cleanup;
+	}
+
+	/**
+	 * Stops tracking the {@link Dataset}s garbage collected since the last
+	 * call.
+	 *
+	 * @return Their cleanup actions, to be run by the caller.
+	 */
+	synchronized List<Runnable> collected() {
+		final List<Runnable> cleanups = new ArrayList<>();
+		Reference<? extends Dataset> ref;
+		while ((ref = queue.poll()) != null) {
+			if (pending.remove(ref)) cleanups.add(((Entry) ref).cleanup);
+		}
+		return cleanups;
+	}
+
+	/** Whether the given {@link Dataset} is tracked. */
+	synchronized boolean isTracked(final Dataset dataset) {
+		return entries.containsKey(dataset);
+	}
+
+	/**
+	 * Gets the tracked {@link Dataset}s not used for at least the given time.
+	 */
+	synchronized List<Dataset> idle(final long millis) {
+		final long limit = System.currentTimeMillis() - millis;
+		final List<Dataset> idle = new ArrayList<>();
+		for (final Map.Entry<Dataset, Entry> entry : entries.entrySet()) {
+			if (entry.getValue().lastUsed <= limit) idle.add(entry.getKey());
+		}
+		return idle;
+	}
+
+	/** Gets all tracked {@link Dataset}s still alive. */
+	synchronized List<Dataset> datasets() {
+		return new ArrayList<>(entries.keySet());
+	}
+
+	/**
+	 * Gets the memory held by the pixels of the tracked {@link Dataset}s.
+	 * Lazy, cached and sparse views are not counted, as they only hold a
+	 * fraction of their pixels, if any.
+	 */
+	synchronized long bytes() {
+		long bytes = 0;
+		for (final Dataset dataset : entries.keySet()) {
+			if (isMaterialized(MATLABArrays.storageImg(dataset))) {
+				bytes += dataset.getBytesOfInfo();
+			}
+		}
+		return bytes;
+	}
+
+	// -- Helper methods --
+
+	private static boolean isMaterialized(final RandomAccessibleInterval<?> img) {
+		return img instanceof ArrayImg || img instanceof PlanarImg ||
+			img instanceof CellImg;
+	}
+
+	/** Keeps a replaced or released entry from being reported as collected. */
+	private void forget(final Entry entry) {
+		if (entry == null) return;
+		pending.remove(entry);
+		entry.clear();
+	}
+
+	// -- Helper classes --
+
+	/** Tracking state of a {@link Dataset}, enqueued once it is collected. */
+	private static class Entry extends WeakReference<Dataset> {
+
+		private final Runnable cleanup;
+		private long lastUsed;
+
+		private Entry(final Dataset dataset,
+			final ReferenceQueue<Dataset> queue, final Runnable cleanup,
+			final long lastUsed)
+		{
+			super(dataset, queue);
+			this.cleanup = cleanup;
+			this.lastUsed = lastUsed;
+		}
+	}
+}
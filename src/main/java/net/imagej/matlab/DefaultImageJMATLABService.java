@@ -30,21 +30,55 @@
 package net.imagej.matlab;
 
 import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
 
 import matlabcontrol.extensions.MatlabNumericArray;
 import matlabcontrol.extensions.MatlabNumericArray.DoubleArrayType;
 import net.imagej.Dataset;
 import net.imagej.DatasetService;
-import net.imagej.axis.Axes;
+import net.imagej.ImgPlus;
 import net.imagej.axis.AxisType;
+import net.imagej.axis.DefaultLinearAxis;
+import net.imagej.display.ImageDisplay;
+import net.imagej.display.ImageDisplayService;
+import net.imagej.event.DatasetUpdatedEvent;
 import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgView;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.numeric.ComplexType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexDoubleType;
 import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
 
+import org.scijava.display.event.DisplayActivatedEvent;
+import org.scijava.display.event.DisplayDeletedEvent;
+import org.scijava.event.EventHandler;
+import org.scijava.log.LogService;
+import org.scijava.object.ObjectService;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.service.AbstractService;
 import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
 import org.scijava.util.ClassUtils;
 
 /**
@@ -60,6 +94,38 @@ public class DefaultImageJMATLABService extends AbstractService implements
 	@Parameter
 	private DatasetService datasetService;
 
+	@Parameter
+	private ObjectService objectService;
+
+	@Parameter(required = false)
+	private ImageDisplayService imageDisplayService;
+
+	@Parameter(required = false)
+	private LogService logService;
+
+	@Parameter(required = false)
+	private ThreadService threadService;
+
+	/** Runs conversions in the background, a bounded number at a time. */
+	private ExecutorService executor;
+
+	/** Memory budget of parallel conversions. */
+	private TransferBudget budget;
+
+	/** Buffers released for reuse by later conversions of the same shape. */
+	private BufferPool pool;
+
+	/** {@link Dataset}s created for transfers, to clean up once unused. */
+	private final DatasetRegistry registry = new DatasetRegistry();
+
+	/** Runs the sweeps releasing idle {@link Dataset}s, if enabled. */
+	private ScheduledExecutorService sweeper;
+
+	private ScheduledFuture<?> sweep;
+
+	/** Number of pixel data updates seen for each {@link Dataset}. */
+	private final Map<Dataset, Long> modificationCounts = new WeakHashMap<>();
+
 	@Override
 	public MatlabNumericArray getArray(final Dataset dataset) {
 		return convertToArray(dataset);
@@ -67,7 +133,430 @@ public class DefaultImageJMATLABService extends AbstractService implements
 
 	@Override
 	public Dataset getDataset(final MatlabNumericArray array) {
-		return convertToDataset(array);
+		return track(convertToDataset(array));
+	}
+
+	@Override
+	public MATLABTypedArray getTypedArray(
+		final RandomAccessibleInterval<? extends RealType<?>> image)
+	{
+		final String matlabClass = MATLABArrays.matlabClass(Util
+			.getTypeFromInterval(image));
+		return MATLABArrays.copy(image, allocate(matlabClass, Intervals
+			.dimensionsAsLongArray(image)));
+	}
+
+	@Override
+	public MATLABTypedArray getTypedArray(
+		final RandomAccessibleInterval<? extends RealType<?>> image,
+		final int[] order)
+	{
+		return MATLABArrays.toTypedArray(image, order);
+	}
+
+	@Override
+	public MATLABTypedArray getTypedArray(
+		final RandomAccessibleInterval<? extends RealType<?>> image,
+		final String matlabClass, final double scale, final double offset)
+	{
+		return ConversionKernels.convert(image, allocate(matlabClass, Intervals
+			.dimensionsAsLongArray(image)), scale, offset);
+	}
+
+	@Override
+	public MATLABTypedArray getNormalizedArray(
+		final RandomAccessibleInterval<? extends RealType<?>> image,
+		final String matlabClass)
+	{
+		final double[] normalization = ConversionKernels.normalization(image,
+			matlabClass);
+		return getTypedArray(image, matlabClass, normalization[0],
+			normalization[1]);
+	}
+
+	@Override
+	public MatlabNumericArray getNumericArray(
+		final RandomAccessibleInterval<? extends RealType<?>> image)
+	{
+		return MATLABArrays.toNumericArray(image);
+	}
+
+	@Override
+	public ImgPlus<DoubleType> getImgPlus(final MatlabNumericArray array) {
+		final MATLABTypedArray doubles = MATLABArrays.toTypedArray(array);
+		return imgPlus(ArrayImgs.doubles((double[]) doubles.getData(), doubles
+			.getDims()), doubles.getDims().length);
+	}
+
+	@Override
+	public ImgPlus<?> getImgPlus(final MATLABTypedArray array) {
+		return imgPlus(MATLABArrays.toImg(array), array.getDims().length);
+	}
+
+	@Override
+	public ImgPlus<?> getImgPlus(final MATLABTypedArray array,
+		final int[] order)
+	{
+		return imgPlus(MATLABArrays.toImg(array, order), array.getDims().length);
+	}
+
+	@Override
+	public ImgPlus<ComplexDoubleType> getComplexImg(
+		final MatlabNumericArray array)
+	{
+		return new ImgPlus<>(MATLABArrays.toComplexImg(array), "MATLAB array",
+			MATLABArrays.axes(array.getLengths().length));
+	}
+
+	@Override
+	public MatlabNumericArray getComplexArray(
+		final RandomAccessibleInterval<? extends ComplexType<?>> image)
+	{
+		return MATLABArrays.toComplexArray(image);
+	}
+
+	@Override
+	public Dataset getDataset(final MATLABSparseMatrix matrix) {
+		final Img<DoubleType> img = ImgView.wrap(matrix.view(),
+			new ArrayImgFactory<>(new DoubleType()));
+		return track(datasetService.create(new ImgPlus<>(img, "MATLAB sparse",
+			MATLABArrays.axes(2))));
+	}
+
+	@Override
+	public MATLABSparseMatrix getSparseMatrix(
+		final RandomAccessibleInterval<? extends RealType<?>> image)
+	{
+		return MATLABSparseMatrix.fromImage(image);
+	}
+
+	@Override
+	public List<MatlabNumericArray> getArrays(final List<Dataset> datasets) {
+		// NB: the nested arrays and the MatlabNumericArray each hold a copy
+		return convertAll(datasets, dataset -> 16 * numElements(dataset),
+			this::convertToArray);
+	}
+
+	@Override
+	public List<Dataset> getDatasets(final List<MatlabNumericArray> arrays) {
+		return convertAll(arrays, array -> 8L * array.getLength(),
+			array -> track(convertToDataset(array)));
+	}
+
+	@Override
+	public MatlabNumericArray getPlaneArray(final Dataset dataset,
+		final long planeIndex)
+	{
+		final int[] lengths = { (int) dataset.dimension(0),
+			dataset.numDimensions() > 1 ? (int) dataset.dimension(1) : 1 };
+		return MATLABArrays.toNumericArray(MATLABArrays.planeToDoubles(dataset,
+			planeIndex), null, lengths);
+	}
+
+	@Override
+	public long[] getPlaneChecksums(final Dataset dataset) {
+		return MATLABArrays.planeChecksums(dataset);
+	}
+
+	@Override
+	public long getModificationCount(final Dataset dataset) {
+		synchronized (modificationCounts) {
+			final Long count = modificationCounts.get(dataset);
+			return count == null ? 0 : count;
+		}
+	}
+
+	@Override
+	public void release(final Dataset dataset) {
+		// only the datasets this service built from MATLAB arrays are refilled,
+		// not those of other origins, nor lazy or sparse images it tracks;
+		// checked before closing the displays cleans the dataset up
+		final boolean tracked = registry.isTracked(dataset);
+		final List<ImageDisplay> displays = displays(dataset);
+		if (displays.isEmpty() || threadService == null) {
+			recycle(dataset, displays, tracked);
+		}
+		else threadService.queue(() -> recycle(dataset, displays, tracked));
+	}
+
+	@Override
+	public void release(final MATLABTypedArray array) {
+		final Object data = array.getData();
+		pool().release(data.getClass(), data, new long[] { array.length() },
+			(long) array.length() * elementSize(data));
+	}
+
+	@Override
+	public void track(final Dataset dataset, final Runnable cleanup) {
+		runCollected();
+		registry.track(dataset, cleanup);
+	}
+
+	@Override
+	public long getRetainedBytes() {
+		return registry.bytes() + pool().bytes();
+	}
+
+	@Override
+	public synchronized void setIdleTimeout(final long millis) {
+		if (sweep != null) sweep.cancel(false);
+		sweep = null;
+		if (millis <= 0) return;
+
+		if (sweeper == null) {
+			sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				final Thread thread = new Thread(runnable, "ImageJ-MATLAB-Sweeper");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		final long period = Math.max(1000, millis / 4);
+		sweep = sweeper.scheduleWithFixedDelay(() -> sweep(millis), period,
+			period, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor = TransferExecutor.create(TransferExecutor.defaultThreads());
+		}
+		return executor;
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public synchronized void dispose() {
+		if (sweeper != null) sweeper.shutdownNow();
+		sweeper = null;
+		if (executor != null) executor.shutdownNow();
+		executor = null;
+	}
+
+	// -- Event handlers --
+
+	/** Releases tracked {@link Dataset}s once their last display closes. */
+	@EventHandler
+	protected void onEvent(final DisplayDeletedEvent evt) {
+		if (!(evt.getObject() instanceof ImageDisplay)) return;
+		final ImageDisplay closed = (ImageDisplay) evt.getObject();
+		for (final Dataset dataset : registry.datasets()) {
+			if (closed.isDisplaying(dataset) && !isDisplayed(dataset, closed)) {
+				cleanUp(dataset);
+			}
+		}
+	}
+
+	/** Viewing a tracked {@link Dataset} counts as using it. */
+	@EventHandler
+	protected void onEvent(final DisplayActivatedEvent evt) {
+		if (!(evt.getDisplay() instanceof ImageDisplay)) return;
+		final ImageDisplay display = (ImageDisplay) evt.getDisplay();
+		for (final Dataset dataset : registry.datasets()) {
+			if (display.isDisplaying(dataset)) registry.touch(dataset);
+		}
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetUpdatedEvent evt) {
+		if (evt.isMetaDataOnly()) return;
+		final Dataset dataset = evt.getObject();
+		synchronized (modificationCounts) {
+			modificationCounts.put(dataset, getModificationCount(dataset) + 1);
+		}
+		registry.touch(dataset);
+	}
+
+	// -- Helper methods: typed conversion --
+
+	private static <T> ImgPlus<T> imgPlus(final Img<T> img, final int numDims) {
+		return new ImgPlus<>(img, "MATLAB array", MATLABArrays.axes(numDims));
+	}
+
+	/**
+	 * Allocates a typed array, reusing a released one of the same type and
+	 * length if there is one.
+	 */
+	private MATLABTypedArray allocate(final String matlabClass,
+		final long[] dims)
+	{
+		long length = 1;
+		for (final long dim : dims) {
+			length *= dim;
+		}
+		final Object data = pool().take(ClassUtils.getArrayClass(MATLABTypedArray
+			.elementType(matlabClass)), new long[] { length });
+		return data == null ? MATLABTypedArray.allocate(matlabClass, dims)
+			: new MATLABTypedArray(data, dims, matlabClass.startsWith("uint"));
+	}
+
+	// -- Helper methods: lifecycle --
+
+	private Dataset track(final Dataset dataset) {
+		runCollected();
+		registry.track(dataset, null);
+		return dataset;
+	}
+
+	/**
+	 * Runs the cleanup actions of the tracked {@link Dataset}s which were
+	 * garbage collected without being released.
+	 */
+	private void runCollected() {
+		for (final Runnable cleanup : registry.collected()) {
+			cleanup.run();
+		}
+	}
+
+	/**
+	 * Stops tracking a {@link Dataset}, running its cleanup action and
+	 * unregistering it, so that nothing but its users keeps it alive.
+	 */
+	private void cleanUp(final Dataset dataset) {
+		final Runnable cleanup = registry.untrack(dataset);
+		if (cleanup != null) cleanup.run();
+		objectService.removeObject(dataset);
+	}
+
+	/**
+	 * Releases the tracked {@link Dataset}s unused for the given time, closing
+	 * their displays if they still have some. Displays are closed on the
+	 * event dispatch thread, which then releases their {@link Dataset}.
+	 */
+	private void sweep(final long millis) {
+		try {
+			runCollected();
+			for (final Dataset dataset : registry.idle(millis)) {
+				final List<ImageDisplay> displays = displays(dataset);
+				if (displays.isEmpty() || threadService == null) {
+					for (final ImageDisplay display : displays) {
+						display.close();
+					}
+					if (registry.isTracked(dataset)) cleanUp(dataset);
+					continue;
+				}
+				// not idle again before the queued close had a chance to run
+				registry.touch(dataset);
+				threadService.queue(() -> {
+					for (final ImageDisplay display : displays) {
+						display.close();
+					}
+					if (registry.isTracked(dataset)) cleanUp(dataset);
+				});
+			}
+		}
+		catch (final RuntimeException exc) {
+			// a failing sweep must not cancel the following ones
+			if (logService != null) logService.error("Idle sweep failed", exc);
+		}
+	}
+
+	/**
+	 * Closes the given displays of a released {@link Dataset}, then pools it
+	 * if it was built from a MATLAB array. Pooling it only once its displays
+	 * are closed keeps their closing from cleaning up its next use.
+	 */
+	private void recycle(final Dataset dataset,
+		final List<ImageDisplay> displays, final boolean tracked)
+	{
+		for (final ImageDisplay display : displays) {
+			display.close();
+		}
+		cleanUp(dataset);
+
+		final Img<?> img = dataset.getImgPlus().getImg();
+		if (!tracked || !(dataset.getType() instanceof DoubleType) ||
+			!(img instanceof ArrayImg || img instanceof PlanarImg)) return;
+		pool().release(Dataset.class, dataset, Intervals.dimensionsAsLongArray(
+			dataset), dataset.getBytesOfInfo());
+	}
+
+	private List<ImageDisplay> displays(final Dataset dataset) {
+		final List<ImageDisplay> displays = new ArrayList<>();
+		if (imageDisplayService == null) return displays;
+		for (final ImageDisplay display : imageDisplayService.getImageDisplays()) {
+			if (display.isDisplaying(dataset)) displays.add(display);
+		}
+		return displays;
+	}
+
+	private boolean isDisplayed(final Dataset dataset,
+		final ImageDisplay except)
+	{
+		if (imageDisplayService == null) return false;
+		for (final ImageDisplay display : imageDisplayService.getImageDisplays()) {
+			if (display != except && display.isDisplaying(dataset)) return true;
+		}
+		return false;
+	}
+
+	// -- Helper methods: parallel conversion --
+
+	/**
+	 * Helper method to run the given conversion on each input in parallel,
+	 * reserving the estimated memory cost of each from the shared budget.
+	 */
+	private <I, O> List<O> convertAll(final List<I> inputs,
+		final ToLongFunction<I> cost, final Function<I, O> converter)
+	{
+		final TransferBudget transferBudget = budget();
+		final List<Future<O>> futures = new ArrayList<>(inputs.size());
+		for (final I input : inputs) {
+			final long bytes = cost.applyAsLong(input);
+			futures.add(getExecutor().submit(() -> {
+				transferBudget.acquire(bytes);
+				try {
+					return converter.apply(input);
+				}
+				finally {
+					transferBudget.release(bytes);
+				}
+			}));
+		}
+
+		final List<O> outputs = new ArrayList<>(futures.size());
+		try {
+			for (final Future<O> future : futures) {
+				outputs.add(future.get());
+			}
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(exc);
+		}
+		catch (final ExecutionException exc) {
+			throw new IllegalStateException(exc.getCause());
+		}
+		return outputs;
+	}
+
+	private synchronized TransferBudget budget() {
+		if (budget == null) {
+			// Leave most of the heap to the data being transferred
+			budget = new TransferBudget(Runtime.getRuntime().maxMemory() / 4);
+		}
+		return budget;
+	}
+
+	private synchronized BufferPool pool() {
+		if (pool == null) pool = new BufferPool(Runtime.getRuntime().maxMemory() /
+			8);
+		return pool;
+	}
+
+	private static int elementSize(final Object data) {
+		if (data instanceof boolean[] || data instanceof byte[]) return 1;
+		if (data instanceof short[]) return 2;
+		if (data instanceof int[] || data instanceof float[]) return 4;
+		return 8;
+	}
+
+	private static long numElements(final Dataset dataset) {
+		long count = 1;
+		for (int d = 0; d < dataset.numDimensions(); d++) {
+			count *= dataset.dimension(d);
+		}
+		return count;
 	}
 
 	// -- Helper methods: to array --
@@ -99,8 +588,13 @@ public class DefaultImageJMATLABService extends AbstractService implements
 			arrayLengths[d] = (int) dataset.dimension(d);
 		}
 
-		// Construct our base array
-		final Object arrays = Array.newInstance(arrayClasses[0], arrayLengths[0]);
+		// Construct our base array, or reuse one of the same shape
+		final long[] dims = Intervals.dimensionsAsLongArray(dataset);
+		final Class<?> arraysClass = ClassUtils.getArrayClass(arrayClasses[0]);
+		Object arrays = pool().take(arraysClass, dims);
+		if (arrays == null) {
+			arrays = Array.newInstance(arrayClasses[0], arrayLengths[0]);
+		}
 
 		// Populate each array position
 		final Cursor<RealType<?>> cursor = dataset.localizingCursor();
@@ -120,6 +614,9 @@ public class DefaultImageJMATLABService extends AbstractService implements
 		final MatlabNumericArray result =
 			new MatlabNumericArray(type, arrays, null);
 
+		// The result holds its own copy, so the nested arrays can be reused
+		pool().release(arraysClass, arrays, dims, 8 * numElements(dataset));
+
 		return result;
 	}
 
@@ -169,18 +666,20 @@ public class DefaultImageJMATLABService extends AbstractService implements
 			dims[i] = (lengths[i]);
 		}
 
-		final AxisType[] axes = new AxisType[lengths.length];
-
-		// Populate AxisType array
 		// In MATLAB, first two axes are X,Y. Subsequent axes are "pages"
-		for (int i=0; i<axes.length; i++) {
-			if (i == 0) axes[i] = Axes.X;
-			else if (i == 1) axes[i] = Axes.Y;
-			else axes[i] = Axes.get("Page " + (i - 2), false);
-		}
+		final AxisType[] axes = MATLABArrays.axes(lengths.length);
 
-		final Dataset dataset =
-			datasetService.create(new DoubleType(), dims, null, axes);
+		// Refill a released dataset of the same shape if there is one
+		Dataset dataset = pool().take(Dataset.class, dims);
+		final boolean reused = dataset != null;
+		if (reused) {
+			// forget whatever the previous user named or calibrated
+			dataset.setName(null);
+			for (int d = 0; d < axes.length; d++) {
+				dataset.setAxis(new DefaultLinearAxis(axes[d]), d);
+			}
+		}
+		else dataset = datasetService.create(new DoubleType(), dims, null, axes);
 
 		// Copy the data
 		final Cursor<RealType<?>> cursor = dataset.localizingCursor();
@@ -189,6 +688,8 @@ public class DefaultImageJMATLABService extends AbstractService implements
 			cursor.fwd();
 			cursor.get().setReal(array.getRealValue(pos++));
 		}
+		// displays of the previous content must refresh
+		if (reused) dataset.update();
 
 		return dataset;
 	}
@@ -33,6 +33,7 @@ import java.lang.reflect.Method;
 
 import javax.xml.xpath.XPathFactory;
 
+import net.imagej.DatasetService;
 import net.imagej.ImageJ;
 import net.imagej.Main;
 import net.imagej.legacy.LegacyService;
@@ -57,6 +58,11 @@ public class ImageJMATLAB {
 	private static ImageJ imagej = null;
 	private static boolean verbose = true;
 
+	/** System property enabling the conversion warm-up on start. */
+	public static final String WARMUP_PROPERTY = "imagej.matlab.warmup";
+
+	private static boolean warmup = Boolean.getBoolean(WARMUP_PROPERTY);
+
 	private static final String WELCOME = "\n-- Welcome to ImageJ-MATLAB --\n"
 			+ "ImageJ-MATLAB consists of an extensible set of commands for passing information between ImageJ and MATLAB."
 			+ "\nSee the individual sections below for a list of available commands.\n\n"
@@ -103,6 +109,17 @@ public class ImageJMATLAB {
 		launch(args);
 	}
 
+	/**
+	 * Enables or disables warming up the conversion code in the background
+	 * when ImageJ starts, so that the first transfer between ImageJ and MATLAB
+	 * is as fast as the following ones. Disabled by default, unless the
+	 * {@value #WARMUP_PROPERTY} system property is {@code true}. Must be set
+	 * before {@link #start()} to take effect.
+	 */
+	public static void setWarmup(final boolean enabled) {
+		warmup = enabled;
+	}
+
 	public static String help() {
 		return WELCOME + context().getService(MATLABService.class).commandHelp() + "\n\n" + getMIJHelp();
 	}
@@ -163,6 +180,8 @@ public class ImageJMATLAB {
 		// Install any available commands
 		matlabService.initializeCommands();
 
+		if (warmup) startWarmup();
+
 		// Print available commands
 		System.out.println(help());
 
@@ -174,6 +193,34 @@ public class ImageJMATLAB {
 		}
 	}
 
+	/**
+	 * Helper method to run the conversion warm-up on a low priority
+	 * background thread, stopping early if ImageJ shuts down meanwhile.
+	 */
+	private static void startWarmup() {
+		final ContextListener listener = contextListener;
+		final ImageJMATLABService ijmService = imagej.get(
+			ImageJMATLABService.class);
+		final DatasetService datasetService = imagej.get(DatasetService.class);
+		final Thread thread = new Thread(() -> {
+			final long start = System.currentTimeMillis();
+			try {
+				ConversionWarmup.run(ijmService, datasetService, listener::isDisposed);
+			}
+			catch (final RuntimeException exc) {
+				System.err.println("ImageJ-MATLAB warm-up failed: " + exc);
+				return;
+			}
+			if (verbose) {
+				System.out.println("ImageJ-MATLAB> Conversions warmed up in " + (System
+					.currentTimeMillis() - start) + " ms");
+			}
+		}, "ImageJ-MATLAB-Warmup");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
 	/**
 	 * Helper method to print MIJ usage if it's present on the classpath.
 	 */
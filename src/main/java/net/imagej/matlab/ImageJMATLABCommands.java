@@ -29,10 +29,52 @@
 
 package net.imagej.matlab;
 
-import javax.script.ScriptEngine;
+import ij.gui.Roi;
+import ij.plugin.frame.RoiManager;
+import io.scif.FormatException;
+import io.scif.services.DatasetIOService;
+import io.scif.services.FormatService;
+import io.scif.services.InitializeService;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.script.ScriptException;
 
 import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.display.ImageDisplay;
 import net.imagej.display.ImageDisplayService;
+import net.imagej.ops.OpService;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.BooleanType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.ComplexType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
 
 import org.scijava.log.LogService;
 import org.scijava.plugin.AbstractRichPlugin;
@@ -41,6 +83,7 @@ import org.scijava.plugin.Plugin;
 import org.scijava.plugins.scripting.matlab.MATLABCommands;
 import org.scijava.plugins.scripting.matlab.MATLABService;
 import org.scijava.script.ScriptService;
+import org.scijava.thread.ThreadService;
 import org.scijava.ui.UIService;
 
 import matlabcontrol.extensions.MatlabNumericArray;
@@ -68,6 +111,24 @@ public class ImageJMATLABCommands extends AbstractRichPlugin implements
 	@Parameter
 	private ScriptService scriptService;
 
+	@Parameter
+	private ThreadService threadService;
+
+	@Parameter
+	private DatasetService datasetService;
+
+	@Parameter(required = false)
+	private DatasetIOService datasetIOService;
+
+	@Parameter(required = false)
+	private InitializeService initializeService;
+
+	@Parameter(required = false)
+	private FormatService formatService;
+
+	@Parameter(required = false)
+	private OpService opService;
+
 	@Parameter
 	private ImageJMATLABService ijmService;
 
@@ -76,6 +137,40 @@ public class ImageJMATLABCommands extends AbstractRichPlugin implements
 
 	public static final String NAME = "IJM";
 
+	/** MATLAB classes which {@link #show(String)} may display lazily. */
+	private static final Set<String> NUMERIC_CLASSES = new HashSet<>(Arrays
+		.asList("logical", "int8", "uint8", "int16", "uint16", "int32", "uint32",
+			"int64", "uint64", "single", "double"));
+
+	/** Default size of the blocks written by {@link #saveChunked(String)}. */
+	private static final long CHUNK_SIZE = 64;
+
+	/** Number of dimensions covered by the default block size. */
+	private static final int MAX_CHUNK_DIMS = 3;
+
+	/** State of the MATLAB variables kept in sync with a {@link Dataset}. */
+	private final Map<String, SyncState> syncStates = new HashMap<>();
+
+	/** Growable storage of the {@link Dataset}s built by {@link #append}. */
+	private final Map<Dataset, PlaneAppender> appenders = Collections
+		.synchronizedMap(new WeakHashMap<>());
+
+	/** The last {@link #append}, which the next one runs after. */
+	private CompletableFuture<Void> appending = CompletableFuture
+		.completedFuture(null);
+
+	/** Tile pyramids of the {@link Dataset}s read by {@link #getTile}. */
+	private final List<PyramidState> pyramids = new ArrayList<>();
+
+	/** Pyramids whose {@link Dataset} was collected, to dispose of. */
+	private final ReferenceQueue<Dataset> collectedPyramids =
+		new ReferenceQueue<>();
+
+	/** Directory in which tile pyramids also cache their tiles, or null. */
+	private File tileCache;
+
+	private MATLABWorkspace workspace;
+
 	// -- ImageJ-MATLAB commands --
 
 	/**
@@ -93,9 +188,123 @@ public class ImageJMATLABCommands extends AbstractRichPlugin implements
 		importDataset(name);
 	}
 
+	/**
+	 * As {@link #getDatasetAs(String)}, permuting the dimensions while copying
+	 * rather than with a separate {@code permute} in MATLAB. The order is given
+	 * as to MATLAB's {@code permute}, e.g. {@code [2 1 3]} to swap rows and
+	 * columns. The matrix keeps the MATLAB class matching the pixel type.
+	 */
+	public void getDatasetAs(final String name, final long[] order) {
+		final Dataset activeDataset = getActiveDataset();
+		if (activeDataset == null) return;
+
+		final int[] permutation = zeroBased(order);
+		assign("Could not assign variable: " + name, ijmService.getExecutor()
+			.submit(() -> ijmService.getTypedArray(activeDataset, permutation)),
+			array -> workspace().putTyped(name, array));
+	}
+
+	/**
+	 * As {@link #getDatasetAs(String)} for each of the named {@link Dataset}s,
+	 * using each name as variable name. Only the conversion is batched: the
+	 * {@link Dataset}s are converted in parallel, then each variable is
+	 * assigned in turn, with one transfer per variable.
+	 */
+	public void getDatasets(final String[] names) {
+		final List<Dataset> datasets = new ArrayList<>(names.length);
+		for (final String name : names) {
+			final Dataset dataset = findDataset(name);
+			if (dataset == null) {
+				logService.info("No image of name: " + name);
+				return;
+			}
+			datasets.add(dataset);
+		}
+
+		final List<MatlabNumericArray> matrices = ijmService.getArrays(datasets);
+		for (int i = 0; i < names.length; i++) {
+			matlabService.makeMATLABVariable(names[i], matrices.get(i));
+		}
+	}
+
+	/**
+	 * As {@link #getDatasetAs(String)}, converting to the given MATLAB class
+	 * while copying, e.g. {@code 'single'} or {@code 'uint8'}. Values beyond
+	 * the range of the class saturate, and are rounded for integer classes.
+	 */
+	public void getDatasetAsType(final String name, final String matlabClass) {
+		importConverted(name, matlabClass, false);
+	}
+
+	/**
+	 * As {@link #getDatasetAsType(String, String)}, rescaling intensities in
+	 * the same pass: to [0, 1] for {@code single} and {@code double}, or to
+	 * the full range of integer classes. Integer images are rescaled from the
+	 * range of their type, e.g. [0, 65535] for 16-bit images, floating point
+	 * images from the range of their values.
+	 */
+	public void getDatasetAsNormalized(final String name,
+		final String matlabClass)
+	{
+		importConverted(name, matlabClass, true);
+	}
+
+	/**
+	 * As {@link #getDataset()}, but the conversion runs in the background. The
+	 * variable is assigned when MATLAB calls {@link MATLABTransfer#await()} on
+	 * the returned handle.
+	 */
+	public MATLABTransfer<MatlabNumericArray> getDatasetAsync() {
+		return importDatasetAsync(null);
+	}
+
+	/**
+	 * As {@link #getDatasetAs(String)}, but the conversion runs in the
+	 * background. The variable is assigned when MATLAB calls
+	 * {@link MATLABTransfer#await()} on the returned handle.
+	 */
+	public MATLABTransfer<MatlabNumericArray> getDatasetAsAsync(
+		final String name)
+	{
+		return importDatasetAsync(name);
+	}
+
+	/**
+	 * As {@link #getDataset()}, but only transfers the planes of the active
+	 * {@link Dataset} which changed since the variable was last synchronized.
+	 */
+	public void sync() {
+		syncDataset(null);
+	}
+
+	/**
+	 * As {@link #getDatasetAs(String)}, but if the variable was previously
+	 * synchronized with the active {@link Dataset}, only the planes which
+	 * changed since then are transferred.
+	 * <p>
+	 * Changes are detected from the update events of the {@link Dataset} and
+	 * confirmed by per-plane checksums. Modifications made to the variable on
+	 * the MATLAB side are not tracked, and are overwritten only for the planes
+	 * which changed in ImageJ.
+	 * </p>
+	 */
+	public void syncAs(final String name) {
+		syncDataset(name);
+	}
+
 	/**
 	 * Take an array variable in MATLAB and attempt to display it as a Dataset
-	 * in ImageJ
+	 * in ImageJ. Complex arrays are displayed as complex images instead.
+	 * <p>
+	 * Real arrays larger than {@link MATLABVirtualImg#LAZY_BYTES} are not
+	 * converted up front: the display opens at once, and only the planes being
+	 * viewed, and their neighbours, are fetched from MATLAB and cached.
+	 * </p>
+	 * <p>
+	 * The conversion runs off MATLAB's thread, which waits for it, and the
+	 * image is displayed by the time this returns. Use
+	 * {@link #showAsync(String)} to get control back at once.
+	 * </p>
 	 */
 	public void show(final String matrix) {
 		if (uiService == null) {
@@ -103,19 +312,623 @@ public class ImageJMATLABCommands extends AbstractRichPlugin implements
 			return;
 		}
 
-		final ScriptEngine engine =
-				scriptService.getLanguageByName("MATLAB").getScriptEngine();
-		final Object o = engine.get(matrix);
-		MatlabNumericArray array = null;
+		// Large arrays are displayed lazily, fetching planes as they are viewed
+		final Dataset lazy = openLazily(matrix);
+		if (lazy != null) {
+			uiService.show(lazy);
+			return;
+		}
+
+		final MatlabNumericArray array = getNumericArray(matrix);
+		if (array == null) return;
+
+		final String failure = "Could not display " + matrix;
+		// Complex arrays keep their imaginary part
+		if (!array.isReal()) {
+			final ImgPlus<?> complex = await(failure, ijmService.getExecutor()
+				.submit(() -> ijmService.getComplexImg(array)));
+			if (complex != null) uiService.show(matrix, complex);
+			return;
+		}
+
+		final Dataset dataset = await(failure, ijmService.getExecutor().submit(
+			() -> ijmService.getDataset(array)));
+		if (dataset != null) uiService.show(dataset);
+	}
+
+	/**
+	 * As {@link #show(String)} for a real array, permuting its dimensions while
+	 * copying, e.g. with order {@code [2 1]} to display a matrix transposed.
+	 * The order is given as to MATLAB's {@code permute}.
+	 */
+	public void show(final String matrix, final long[] order) {
+		if (uiService == null) {
+			logService.info("No UI available to display array");
+			return;
+		}
+
+		final MatlabNumericArray array = getNumericArray(matrix);
+		if (array == null) return;
+
+		final int[] permutation = zeroBased(order);
+		final Dataset dataset = await("Could not display " + matrix, ijmService
+			.getExecutor().submit(() -> {
+				final Dataset permuted = createDataset(ijmService.getImgPlus(
+					MATLABArrays.toTypedArray(array), permutation));
+				ijmService.track(permuted, null);
+				return permuted;
+			}));
+		if (dataset != null) uiService.show(dataset);
+	}
+
+	/**
+	 * Displays a MATLAB {@code logical} array as a {@link BitType} mask, using
+	 * one bit per element instead of the 64 of {@link #show(String)}. Called
+	 * from MATLAB as {@code IJM.showMask(M(:), size(M))}.
+	 */
+	public void showMask(final boolean[] mask, final long[] dims) {
+		if (uiService == null) {
+			logService.info("No UI available to display array");
+			return;
+		}
+
+		final ImgPlus<BitType> imgPlus = new ImgPlus<>(MATLABArrays.toBitImg(
+			mask, dims), "MATLAB mask", MATLABArrays.axes(dims.length));
+		uiService.show(datasetService.create(imgPlus));
+	}
+
+	/**
+	 * As {@link #show(String)} for each of the named variables. The arrays are
+	 * read from MATLAB first, then converted in parallel off MATLAB's thread,
+	 * which waits for them.
+	 */
+	public void showAll(final String[] matrices) {
+		if (uiService == null) {
+			logService.info("No UI available to display array");
+			return;
+		}
+
+		final List<MatlabNumericArray> arrays = new ArrayList<>(matrices.length);
+		for (final String matrix : matrices) {
+			final MatlabNumericArray array = getNumericArray(matrix);
+			if (array == null) return;
+			arrays.add(array);
+		}
+
+		// NB: the conversions run on the transfer executor
+		for (final Dataset dataset : ijmService.getDatasets(arrays)) {
+			uiService.show(dataset);
+		}
+	}
+
+	/**
+	 * As {@link #show(String)} for a real array, returning a handle on which
+	 * MATLAB can wait for the display.
+	 */
+	public MATLABTransfer<Dataset> showAsync(final String matrix) {
+		if (uiService == null) {
+			logService.info("No UI available to display array");
+			return null;
+		}
+
+		final MatlabNumericArray array = getNumericArray(matrix);
+		if (array == null) return null;
+
+		return new MATLABTransfer<>(ijmService.getExecutor().submit(() -> {
+			final Dataset dataset = ijmService.getDataset(array);
+			uiService.show(dataset);
+			return dataset;
+		}), null);
+	}
+
+	/**
+	 * Take an array variable in MATLAB and append it to the named
+	 * {@link Dataset} along the given axis, e.g. {@code "Time"}. If no such
+	 * {@link Dataset} exists, a new one is created with the given axis last,
+	 * and displayed. Otherwise the axis must be the last one of the
+	 * {@link Dataset}, and the array must match its other dimensions. An
+	 * existing {@link Dataset} not created by this command must be of
+	 * double type, as MATLAB arrays are appended as doubles.
+	 * <p>
+	 * Appended data is kept in growable planar storage: each call only copies
+	 * the new planes, so building a series of n frames costs O(n) instead of
+	 * the O(n^2) of showing the whole array again after each frame.
+	 * </p>
+	 * <p>
+	 * The copy runs off MATLAB's thread, after that of any previous call, and
+	 * is done by the time this returns.
+	 * </p>
+	 */
+	public void append(final String matrix, final String datasetName,
+		final String axis)
+	{
+		final MatlabNumericArray array = getNumericArray(matrix);
+		if (array == null) return;
+
+		final CompletableFuture<Void> appended;
+		synchronized (appenders) {
+			appended = appending.thenRunAsync(() -> appendArray(matrix, array,
+				datasetName, axis), ijmService.getExecutor());
+			// a failed append must not cancel the following ones
+			appending = appended.exceptionally(exc -> null);
+		}
+		await("Could not append " + matrix + " to " + datasetName, appended);
+	}
+
+	/**
+	 * Reads an image file directly into a MATLAB matrix of the same pixel type,
+	 * stored in a variable of the given name. Unlike opening the file in ImageJ
+	 * and using {@link #getDatasetAs(String)}, no intermediate {@link Dataset}
+	 * or {@code double} copy is made.
+	 * <p>
+	 * The first dimensions of the matrix are the planar axes of the file
+	 * (usually X and Y), followed by the non-planar ones.
+	 * </p>
+	 */
+	public void open(final String path, final String name) {
+		openFile(path, name, 1, null);
+	}
+
+	/**
+	 * As {@link #open(String, String)}, reading the given 1-based series of a
+	 * multi-series file.
+	 */
+	public void open(final String path, final String name, final int series) {
+		openFile(path, name, series, null);
+	}
+
+	/**
+	 * As {@link #open(String, String, int)}, reading only the given 1-based
+	 * planes. All non-planar axes are then flattened into the last dimension of
+	 * the matrix.
+	 */
+	public void open(final String path, final String name, final int series,
+		final long[] planes)
+	{
+		openFile(path, name, series, planes);
+	}
+
+	/**
+	 * Writes a MATLAB matrix to an image file in its native type. The matrix is
+	 * fetched and written one XY plane at a time, so memory use does not grow
+	 * with the size of the matrix.
+	 *
+	 * @param dimorder One letter among {@code XYZCT} per dimension of the
+	 *          matrix, e.g. {@code "YXZT"}. It must start with {@code XY} or
+	 *          {@code YX}; in the latter case, planes are transposed while
+	 *          writing.
+	 */
+	public void save(final String matrix, final String path,
+		final String dimorder)
+	{
+		if (formatService == null) {
+			logService.info("No SCIFIO available to write " + path);
+			return;
+		}
+
+		try {
+			final MATLABWorkspace ws = workspace();
+			final long[] dims = ws.size(matrix);
+			final SCIFIOArrayWriter writer = new SCIFIOArrayWriter(getContext(),
+				formatService, path, ws.classOf(matrix), dims, dimorder);
+			try {
+				final long planeCount = MATLABArrays.planeCount(
+					new FinalDimensions(dims));
+				for (long p = 0; p < planeCount; p++) {
+					writer.write(p, ws.getTyped(matrix + "(:,:," + (p + 1) + ")"));
+				}
+			}
+			finally {
+				writer.close();
+			}
+		}
+		catch (final IOException | FormatException | ScriptException exc) {
+			logService.error("Could not save " + matrix + " to " + path, exc);
+		}
+	}
+
+	/**
+	 * Runs a MATLAB script on each of the given image files. Each image is
+	 * assigned to the {@code data} variable before running the script; if the
+	 * script sets a {@code result} matrix, it is saved as TIFF into the output
+	 * directory, under the base name of the input file.
+	 * <p>
+	 * Opening and converting the next file, as well as saving the previous
+	 * result, happen in the background while the script runs, so MATLAB does
+	 * not wait on I/O.
+	 * </p>
+	 *
+	 * @return The number of results saved.
+	 */
+	public int batch(final String[] files, final String script,
+		final String outputDir)
+	{
+		if (datasetIOService == null) {
+			logService.info("No image I/O available for batch processing");
+			return 0;
+		}
+
+		final BatchPipeline pipeline = new BatchPipeline(datasetIOService,
+			ijmService, threadService, logService, workspace());
+		try {
+			return pipeline.run(files, script, outputDir);
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			logService.info("Batch processing interrupted");
+			return 0;
+		}
+	}
+
+	/**
+	 * Exports the labels of the active {@link Dataset}, which must be of an
+	 * integer type, as a struct like those of MATLAB's {@code bwconncomp},
+	 * assigned to the specified variable name. Only labelled pixels are
+	 * transferred, as 1-based linear indices.
+	 */
+	public void getLabelsAs(final String name) {
+		final Dataset activeDataset = getActiveDataset();
+		if (activeDataset == null) return;
+
+		if (!(activeDataset.getType() instanceof IntegerType)) {
+			logService.info("Image " + activeDataset.getName() +
+				" is not a label image.");
+			return;
+		}
+
+		@SuppressWarnings("unchecked")
+		final RandomAccessibleInterval<? extends IntegerType<?>> image =
+			(RandomAccessibleInterval<? extends IntegerType<?>>) activeDataset;
+		assign("Could not export labels: " + name, ijmService.getExecutor()
+			.submit(() -> MATLABLabels.encode(image)), regions -> {
+				final String indices = MATLABWorkspace.temp("indices");
+				final String counts = MATLABWorkspace.temp("counts");
+				final String labels = MATLABWorkspace.temp("labels");
+				workspace().put(indices, regions.indices);
+				workspace().put(counts, regions.counts);
+				workspace().put(labels, regions.labels);
+				workspace().eval(name + " = " + MATLABLabels.struct(regions,
+					Intervals.dimensionsAsLongArray(image), indices, counts, labels) +
+					";");
+				workspace().clear(indices, counts, labels);
+			});
+	}
+
+	/**
+	 * Exports the ROIs of the ImageJ 1.x ROI Manager as a struct array with
+	 * fields {@code Name}, {@code X} and {@code Y}, the polygon outline of each
+	 * ROI in ImageJ pixel coordinates, assigned to the specified variable name.
+	 */
+	public void getRoisAs(final String name) {
+		final RoiManager roiManager = RoiManager.getInstance();
+		if (roiManager == null) {
+			logService.info("No ROI Manager open.");
+			return;
+		}
+
+		final MATLABLabels.Polygons polygons = MATLABLabels.encode(roiManager
+			.getRoisAsArray());
+		final String names = MATLABWorkspace.temp("names");
+		final String xs = MATLABWorkspace.temp("xs");
+		final String ys = MATLABWorkspace.temp("ys");
+		final String counts = MATLABWorkspace.temp("counts");
+		try {
+			workspace().put(names, polygons.names);
+			workspace().put(xs, polygons.xs);
+			workspace().put(ys, polygons.ys);
+			workspace().put(counts, polygons.counts);
+			workspace().eval(MATLABLabels.toCell(names));
+			workspace().eval(name + " = " + MATLABLabels.struct(polygons, names, xs,
+				ys, counts) + ";");
+			workspace().clear(names, xs, ys, counts);
+		}
+		catch (final ScriptException exc) {
+			logService.error("Could not export ROIs: " + name, exc);
+		}
+	}
+
+	/**
+	 * Displays a label image built from concatenated 1-based pixel index
+	 * lists, the pixels of the k-th list getting label k, without transferring
+	 * a dense array. Called from MATLAB on a {@code bwconncomp} struct as
+	 * {@code IJM.showLabels(vertcat(CC.PixelIdxList{:}), cellfun(@numel, CC.PixelIdxList), CC.ImageSize, name)}.
+	 */
+	public void showLabels(final double[] indices, final double[] counts,
+		final long[] dims, final String name)
+	{
+		if (uiService == null) {
+			logService.info("No UI available to display array");
+			return;
+		}
+
+		try {
+			final ImgPlus<?> imgPlus = new ImgPlus<>(MATLABLabels.decode(indices,
+				counts, dims), name, MATLABArrays.axes(dims.length));
+			uiService.show(createDataset(imgPlus));
+		}
+		catch (final IllegalArgumentException exc) {
+			logService.error("Could not build labels: " + name, exc);
+		}
+	}
+
+	/**
+	 * Adds polygon ROIs to the ImageJ 1.x ROI Manager, from concatenated
+	 * vertex coordinates in ImageJ pixel coordinates, the k-th polygon having
+	 * {@code counts(k)} vertices.
+	 */
+	public void addRois(final double[] xs, final double[] ys,
+		final double[] counts)
+	{
+		final List<Roi> rois;
+		try {
+			rois = MATLABLabels.decode(xs, ys, counts);
+		}
+		catch (final IllegalArgumentException exc) {
+			logService.error("Could not build ROIs", exc);
+			return;
+		}
+
+		RoiManager roiManager = RoiManager.getInstance();
+		if (roiManager == null) roiManager = new RoiManager();
+		for (final Roi roi : rois) {
+			roiManager.addRoi(roi);
+		}
+	}
+
+	/**
+	 * Displays a MATLAB sparse matrix given as triplets, without ever building
+	 * the full matrix: the image reads its elements from sparse storage on
+	 * access. Called from MATLAB as
+	 * {@code [i, j, v] = find(S); IJM.showSparse(i, j, v, size(S))}.
+	 */
+	public void showSparse(final double[] i, final double[] j, final double[] v,
+		final long[] dims)
+	{
+		if (uiService == null) {
+			logService.info("No UI available to display array");
+			return;
+		}
+
+		try {
+			uiService.show(ijmService.getDataset(MATLABSparseMatrix.fromTriplets(i,
+				j, v, dims[0], dims[1])));
+		}
+		catch (final IllegalArgumentException exc) {
+			logService.error("Could not build sparse matrix", exc);
+		}
+	}
+
+	/**
+	 * Exports the nonzero elements of the active two-dimensional
+	 * {@link Dataset} as a MATLAB sparse matrix, assigned to the specified
+	 * variable name. Only the nonzero elements are transferred, as triplets.
+	 */
+	public void getSparseAs(final String name) {
+		final Dataset activeDataset = getActiveDataset();
+		if (activeDataset == null) return;
+
+		if (activeDataset.numDimensions() != 2) {
+			logService.info("Image " + activeDataset.getName() +
+				" is not two-dimensional.");
+			return;
+		}
+
+		assign("Could not export sparse matrix: " + name, ijmService.getExecutor()
+			.submit(() -> ijmService.getSparseMatrix(activeDataset)), matrix -> {
+				final String i = MATLABWorkspace.temp("i");
+				final String j = MATLABWorkspace.temp("j");
+				final String v = MATLABWorkspace.temp("v");
+				workspace().put(i, matrix.getRowTriplets());
+				workspace().put(j, matrix.getColumnTriplets());
+				workspace().put(v, matrix.getValues());
+				workspace().eval(name + " = sparse(" + i + "(:), " + j + "(:), " + v +
+					"(:), " + matrix.getRows() + ", " + matrix.getColumns() + ");");
+				workspace().clear(i, j, v);
+			});
+	}
+
+	/**
+	 * As {@link #op(String, String, String, Object[])}, without further
+	 * arguments.
+	 */
+	public void op(final String opName, final String outVar,
+		final String inVar)
+	{
+		op(opName, outVar, inVar, new Object[0]);
+	}
+
+	/**
+	 * Runs an ImageJ op on a MATLAB array and assigns its result to a MATLAB
+	 * variable, without displaying anything. The array is fetched in its
+	 * native class and wrapped as an image without copying; an image result is
+	 * sent back in its own native class, e.g. as {@code
+	 * IJM.op('filter.gauss', 'out', 'in', {2.0})}.
+	 *
+	 * @param opName The name of the op, e.g. {@code "filter.gauss"}.
+	 * @param outVar The variable to assign the result to.
+	 * @param inVar The variable holding the input array, passed as first
+	 *          argument of the op.
+	 * @param args The further arguments of the op, as a MATLAB cell array.
+	 */
+	public void op(final String opName, final String outVar,
+		final String inVar, final Object[] args)
+	{
+		if (opService == null) {
+			logService.info("No ImageJ Ops available to run " + opName);
+			return;
+		}
+
+		final String failure = "Could not run " + opName + " on " + inVar;
+		final MATLABTypedArray input;
+		try {
+			input = workspace().getTyped(inVar);
+		}
+		catch (final ScriptException exc) {
+			logService.error(failure, exc);
+			return;
+		}
+
+		assign(failure, ijmService.getExecutor().submit(() -> {
+			final Object[] opArgs = new Object[args.length + 1];
+			opArgs[0] = MATLABArrays.toImg(input);
+			System.arraycopy(args, 0, opArgs, 1, args.length);
+			return convertResult(outVar, opService.run(opName, opArgs));
+		}), value -> assignResult(outVar, value));
+	}
+
+	/**
+	 * Gets a region of a large 2D {@link Dataset} at the given zoom level, for
+	 * browsing images too large to transfer whole, e.g. as {@code
+	 * tile = IJM.getTile('slide.tif', 2, 1, 1, 512, 512)}. Levels are computed
+	 * lazily by averaging, one tile at a time, and cached; only the first plane
+	 * of images with more than two dimensions is used.
+	 *
+	 * @param name The name of the image.
+	 * @param level 0 for full resolution, each further level halving it.
+	 * @param x 1-based X position of the region at the given level.
+	 * @param y 1-based Y position of the region at the given level.
+	 * @param w Width of the region, clipped to the image.
+	 * @param h Height of the region, clipped to the image.
+	 * @return The region as a matrix with X along rows, or null on failure.
+	 */
+	public double[][] getTile(final String name, final int level, final long x,
+		final long y, final int w, final int h)
+	{
+		final Dataset dataset = findDataset(name);
+		if (dataset == null) {
+			logService.info("No image of name: " + name);
+			return null;
+		}
+
+		try {
+			return pyramid(dataset).region(level, x - 1, y - 1, w, h);
+		}
+		catch (final IOException | IllegalArgumentException exc) {
+			logService.error("Could not read tile of " + name, exc);
+			return null;
+		}
+	}
+
+	/**
+	 * Sets the directory in which {@link #getTile} also caches the tiles it
+	 * computes, so they survive being evicted from memory, or disables the disk
+	 * cache when given an empty path.
+	 */
+	public void setTileCache(final String dir) {
+		tileCache = dir == null || dir.isEmpty() ? null : new File(dir);
+		synchronized (pyramids) {
+			for (final PyramidState state : pyramids) {
+				state.pyramid.dispose();
+			}
+			pyramids.clear();
+		}
+	}
+
+	/**
+	 * As {@link #saveChunked(String, long[], String)}, gzip compressed, with
+	 * blocks of {@value #CHUNK_SIZE} elements along the first three dimensions
+	 * and of one element along further ones.
+	 */
+	public void saveChunked(final String path) {
+		final long[] blockSize = new long[MAX_CHUNK_DIMS];
+		Arrays.fill(blockSize, CHUNK_SIZE);
+		saveChunked(path, blockSize, "gzip");
+	}
+
+	/**
+	 * Writes the active {@link Dataset} as an N5 dataset in the given
+	 * directory, one file per block, the blocks being written in parallel.
+	 * MATLAB can then process the image block by block with the {@code
+	 * readN5Block} function, without ever loading it whole. The blocks are
+	 * written off MATLAB's thread, which waits for them.
+	 *
+	 * @param blockSize The size of the blocks along each dimension; missing
+	 *          dimensions get blocks of size 1.
+	 * @param compression {@code "gzip"} or {@code "raw"}.
+	 */
+	public void saveChunked(final String path, final long[] blockSize,
+		final String compression)
+	{
+		final Dataset activeDataset = getActiveDataset();
+		if (activeDataset == null) return;
+
+		try {
+			N5Chunks.write(activeDataset, new File(path), blockSize, compression,
+				ijmService.getExecutor());
+		}
+		catch (final IOException exc) {
+			logService.error("Could not save " + activeDataset.getName() + " to " +
+				path, exc);
+		}
+	}
+
+	/**
+	 * Displays the N5 dataset in the given directory, e.g. as written by
+	 * {@link #saveChunked} or by MATLAB, as an image whose blocks are only
+	 * read from disk when accessed.
+	 */
+	public void openChunked(final String path) {
+		// only the metadata is read here, blocks are read as they are viewed
+		try {
+			final File dir = new File(path);
+			final Img<?> img = N5Chunks.open(dir);
+			final Dataset dataset = createDataset(new ImgPlus<>(img, dir.getName(),
+				MATLABArrays.axes(img.numDimensions())));
+			if (uiService != null) uiService.show(dataset);
+		}
+		catch (final IOException exc) {
+			logService.error("Could not open " + path, exc);
+		}
+	}
 
-		if (o instanceof MatlabNumericArray) array = (MatlabNumericArray) o;
+	/**
+	 * Enables or disables the compression of large image transfers to MATLAB.
+	 * When enabled, compressible images are sent deflated in their native
+	 * type, and only widened to double by MATLAB. This is enabled by default
+	 * when ImageJ talks to MATLAB from its own process, where transfers are
+	 * slowest.
+	 */
+	public void setCompression(final boolean enabled) {
+		workspace().setCompression(enabled);
+	}
 
-		if (array == null) {
-			logService.info("Variable of name: " + matrix + " is not an array.");
+	/**
+	 * Closes the named image and hands its memory over for reuse: the next
+	 * {@link #show(String)} of a MATLAB matrix of the same size refills it
+	 * instead of allocating a new image. Loops displaying many images of the
+	 * same size can release each one when done with it, so that they recycle
+	 * the same few buffers rather than churn the heap. Lazily displayed
+	 * matrices also clear their {@code ijm_view_*} snapshot.
+	 */
+	public void release(final String name) {
+		final Dataset dataset = findDataset(name);
+		if (dataset == null) {
+			logService.info("No image of name: " + name);
 			return;
 		}
 
-		uiService.show(ijmService.getDataset(array));
+		// the service closes its displays on the event dispatch thread
+		appenders.remove(dataset);
+		ijmService.release(dataset);
+	}
+
+	/**
+	 * Gets the memory retained by the images created from MATLAB matrices
+	 * which are still alive, and by the buffers pooled for reuse, in bytes.
+	 * Such images are released when their window closes, when passed to
+	 * {@link #release(String)}, or after the idle timeout.
+	 */
+	public long retained() {
+		return ijmService.getRetainedBytes();
+	}
+
+	/**
+	 * Sets the time after which images created from MATLAB matrices are
+	 * closed and released if they were neither viewed nor modified, for long
+	 * sessions showing many images. Disabled when 0, the default.
+	 */
+	public void setIdleTimeout(final double seconds) {
+		ijmService.setIdleTimeout((long) (seconds * 1000));
 	}
 
 	// -- MATLABCommands methods --
@@ -128,7 +941,42 @@ public class ImageJMATLABCommands extends AbstractRichPlugin implements
 				+ "\tgetDataset - creates a MATLAB matrix from the active ImageJ image\n"
 				+ "\tgetDatasetAs(name) - creates a MATLAB matrix from the active "
 				+ "ImageJ image, and assigns it to the specified variable name\n"
-				+ "\tshow(name) - takes the MATLAB matrix with the specified name and displays it as an image";
+				+ "\tsync - as getDataset, but only transfers the planes changed since the last sync\n"
+				+ "\tgetDatasetAs(name, order) - as getDatasetAs, in the native MATLAB class, permuting the dimensions as permute(I, order) while copying\n"
+				+ "\tsyncAs(name) - as getDatasetAs, but only transfers the planes changed since the last sync\n"
+				+ "\tshow(name) - takes the MATLAB matrix with the specified name and displays it as an image; complex matrices keep their imaginary part, and large ones are loaded lazily plane by plane from a snapshot variable named ijm_view_*\n"
+				+ "\tshow(name, order) - as show, permuting the dimensions of the matrix as permute(I, order) while copying\n"
+				+ "\tshowMask(mask(:), size(mask)) - displays a MATLAB logical array as a bit mask image\n"
+				+ "\tappend(name, dataset, axis) - appends the MATLAB matrix with the specified name to the named image along the given axis, creating the image if needed\n"
+				+ "\tgetDatasetAsync - as getDataset, but converts in the background and returns a handle; call await on it to assign the variable\n"
+				+ "\tgetDatasetAsAsync(name) - as getDatasetAs, but converts in the background and returns a handle; call await on it to assign the variable\n"
+				+ "\tshowAsync(name) - as show, but converts and displays in the background and returns a handle\n"
+				+ "\tgetDatasets(names) - converts the ImageJ images with the specified names in parallel, then assigns each in turn to a MATLAB variable of the same name\n"
+				+ "\tshowAll(names) - takes the MATLAB matrices with the specified names, converts them in parallel and displays them as images\n"
+				+ "\tbatch(files, script, outdir) - for each file, opens it, assigns it to 'data', runs the MATLAB script, and saves any 'result' matrix to the output directory; reading and saving overlap with the script\n"
+				+ "\topen(path, name) - reads an image file straight into a MATLAB matrix of its native type, assigned to the specified variable name\n"
+				+ "\topen(path, name, series) - as open, reading the given (1-based) series of the file\n"
+				+ "\topen(path, name, series, planes) - as open, reading only the given (1-based) planes of the series\n"
+				+ "\tsave(name, path, dimorder) - writes the MATLAB matrix with the specified name to an image file plane by plane, in its native type; dimorder gives one letter of XYZCT per dimension, starting with XY or YX\n"
+				+ "\tgetLabelsAs(name) - exports the labels of the active ImageJ image as a bwconncomp style struct of pixel index lists\n"
+				+ "\tgetRoisAs(name) - exports the ROIs of the ROI Manager as a struct array of polygons with fields Name, X and Y\n"
+				+ "\tshowLabels(indices, counts, size, name) - displays a label image built from concatenated pixel index lists, e.g. those of a bwconncomp struct\n"
+				+ "\taddRois(xs, ys, counts) - adds polygons given as concatenated vertex coordinates to the ROI Manager\n"
+				+ "\tshowSparse(i, j, v, size) - displays a sparse matrix given as the triplets of find, without building the full matrix\n"
+				+ "\tgetSparseAs(name) - exports the nonzero elements of the active 2D ImageJ image as a MATLAB sparse matrix\n"
+				+ "\top(op, out, in) - runs the named ImageJ op on the MATLAB matrix in, assigning its result to out\n"
+				+ "\top(op, out, in, args) - as op, passing the cell array args as further arguments of the op\n"
+				+ "\tgetTile(name, level, x, y, w, h) - returns a region of the named 2D ImageJ image at the given zoom level, 0 being full resolution and each level halving it\n"
+				+ "\tsetTileCache(dir) - also caches the tiles computed by getTile in the given directory, or only in memory when dir is empty\n"
+				+ "\tsaveChunked(dir) - writes the active ImageJ image as a gzip compressed N5 dataset of blocks of 64 pixels along XYZ, to be read block by block with readN5Block\n"
+				+ "\tsaveChunked(dir, blocksize, compression) - as saveChunked, with the given block size and a compression of gzip or raw\n"
+				+ "\topenChunked(dir) - displays an N5 dataset as an image whose blocks are read from disk when accessed\n"
+				+ "\tsetCompression(enabled) - enables or disables compressing large transfers to MATLAB, enabled by default when MATLAB is reached from another process\n"
+				+ "\trelease(name) - closes the named ImageJ image and recycles its memory for the next image of the same size\n"
+				+ "\tretained - returns the bytes held by images created from MATLAB matrices and by recycled buffers\n"
+				+ "\tsetIdleTimeout(seconds) - closes and releases images created from MATLAB matrices once unused for the given time, 0 to disable\n"
+				+ "\tgetDatasetAsType(name, class) - as getDatasetAs, converting to the given MATLAB class while copying, with saturation\n"
+				+ "\tgetDatasetAsNormalized(name, class) - as getDatasetAsType, also rescaling intensities to [0, 1], or to the full range of integer classes";
 		return usage;
 	}
 
@@ -138,21 +986,512 @@ public class ImageJMATLABCommands extends AbstractRichPlugin implements
 	 * Helper method to perform {@link Dataset} conversion, and set the variable
 	 * within MATLAB.
 	 */
-	private void importDataset(String name) {
+	private void importDataset(final String name) {
 
-		final Dataset activeDataset = imageDisplayService.getActiveDataset();
+		final Dataset activeDataset = getActiveDataset();
+		if (activeDataset == null) return;
 
-		if (activeDataset == null) {
-			logService.info("No active image. Please open an image in ImageJ first.");
+		final String varName = name == null ? activeDataset.getName() : name;
+
+		// Masks are sent as packed logical arrays rather than doubles
+		if (activeDataset.getType() instanceof BooleanType) {
+			assign("Could not assign mask: " + varName, ijmService.getExecutor()
+				.submit(() -> ijmService.getTypedArray(activeDataset)), array -> {
+					try {
+						workspace().putTyped(varName, array);
+					}
+					finally {
+						ijmService.release(array);
+					}
+				});
 			return;
 		}
 
-		if (name == null) name = activeDataset.getName();
+		// Over RMI, send the native elements compressed rather than doubles
+		if (workspace().isCompression()) {
+			final Future<MATLABTypedArray> conversion = ijmService.getExecutor()
+				.submit(() -> ijmService.getTypedArray(activeDataset));
+			assign("Could not assign variable: " + varName, conversion, array -> {
+				try {
+					workspace().putTyped(varName, array);
+					workspace().eval(varName + " = double(" + varName + ");");
+				}
+				finally {
+					ijmService.release(array);
+				}
+			});
+			return;
+		}
 
 		// Convert the active dataset to a MATLAB-compatible array.
-		final MatlabNumericArray matrix = ijmService.getArray(activeDataset);
+		assign("Could not assign variable: " + varName, ijmService.getExecutor()
+			.submit(() -> ijmService.getArray(activeDataset)),
+			matrix -> matlabService.makeMATLABVariable(varName, matrix));
+	}
+
+	/**
+	 * Helper method to perform {@link Dataset} conversion in the background,
+	 * deferring the variable assignment to the MATLAB thread.
+	 */
+	private MATLABTransfer<MatlabNumericArray> importDatasetAsync(
+		final String name)
+	{
+		final Dataset activeDataset = getActiveDataset();
+		if (activeDataset == null) return null;
+
+		final String varName = name == null ? activeDataset.getName() : name;
+
+		return new MATLABTransfer<>(ijmService.getExecutor().submit(
+			() -> ijmService.getArray(activeDataset)),
+			matrix -> matlabService.makeMATLABVariable(varName, matrix));
+	}
 
-		matlabService.makeMATLABVariable(name, matrix);
+	/**
+	 * Helper method to assign the active {@link Dataset}, converted to the
+	 * given MATLAB class, to a variable.
+	 */
+	private void importConverted(final String name, final String matlabClass,
+		final boolean normalize)
+	{
+		final Dataset activeDataset = getActiveDataset();
+		if (activeDataset == null) return;
+
+		final Future<MATLABTypedArray> conversion = ijmService.getExecutor()
+			.submit(() -> normalize ? ijmService.getNormalizedArray(activeDataset,
+				matlabClass) : ijmService.getTypedArray(activeDataset, matlabClass, 1,
+					0));
+		assign("Could not assign variable: " + name, conversion, array -> {
+			try {
+				workspace().putTyped(name, array);
+			}
+			finally {
+				ijmService.release(array);
+			}
+		});
+	}
+
+	/**
+	 * Helper method to append an array read from MATLAB to the named
+	 * {@link Dataset}, as described in {@link #append}.
+	 */
+	private void appendArray(final String matrix,
+		final MatlabNumericArray array, final String datasetName,
+		final String axis)
+	{
+		final AxisType axisType = Axes.get(axis);
+		final Dataset dataset = findDataset(datasetName);
+
+		if (dataset == null) {
+			final PlaneAppender appender = PlaneAppender.create(array.getLengths());
+			appender.append(array);
+			final Dataset created =
+				appender.createDataset(datasetService, datasetName, axisType);
+			appenders.put(created, appender);
+			if (uiService == null) {
+				logService.info("No UI available to display array");
+				return;
+			}
+			uiService.show(created);
+			return;
+		}
+
+		final int last = dataset.numDimensions() - 1;
+		if (last < 2 || dataset.axis(last).type() != axisType) {
+			logService.info("Cannot append to " + datasetName + ": " + axis +
+				" is not its last axis.");
+			return;
+		}
+
+		PlaneAppender appender = appenders.get(dataset);
+		if (appender == null) {
+			// One-time copy of data not built by this command
+			appender = PlaneAppender.wrap(dataset);
+			if (appender == null) {
+				logService.info("Cannot append to " + datasetName + ": only " +
+					"double Datasets can grow without changing their type.");
+				return;
+			}
+			appenders.put(dataset, appender);
+		}
+		if (!appender.accepts(array.getLengths())) {
+			logService.info("Variable of name: " + matrix +
+				" does not match the dimensions of " + datasetName);
+			return;
+		}
+
+		final long length = appender.append(array);
+		appender.update(dataset);
+
+		// Bring the newly appended data into view
+		if (imageDisplayService == null) return;
+		for (final ImageDisplay display : imageDisplayService.getImageDisplays()) {
+			if (!display.isDisplaying(dataset)) continue;
+			display.setPosition(length - 1, axisType);
+			display.update();
+		}
+	}
+
+	/**
+	 * Helper method to read a file with SCIFIO into a MATLAB variable, using
+	 * MATLAB's 1-based indices.
+	 */
+	private void openFile(final String path, final String name,
+		final int series, final long[] planes)
+	{
+		if (initializeService == null) {
+			logService.info("No SCIFIO available to read " + path);
+			return;
+		}
+
+		final long[] indices = planes == null ? null : new long[planes.length];
+		for (int i = 0; indices != null && i < planes.length; i++) {
+			indices[i] = planes[i] - 1;
+		}
+
+		// NB: waits on the plane reads, so runs apart from the transfer executor
+		final Future<MATLABTypedArray> reading = threadService.run(
+			() -> new SCIFIOArrayReader(initializeService, ijmService.getExecutor())
+				.read(path, series - 1, indices));
+		assign("Could not open " + path, reading, array -> workspace().putTyped(
+			name, array));
+	}
+
+	/**
+	 * Helper method to transfer the planes of the active {@link Dataset} which
+	 * changed since the last synchronization of the given variable.
+	 */
+	private void syncDataset(String name) {
+		final Dataset activeDataset = getActiveDataset();
+		if (activeDataset == null) return;
+
+		if (name == null) name = activeDataset.getName();
+
+		final long[] dims = Intervals.dimensionsAsLongArray(activeDataset);
+		final long count = ijmService.getModificationCount(activeDataset);
+		final SyncState state = syncStates.get(name);
+
+		// Anything but a known variable of the same shape needs a full transfer,
+		// as does a variable cleared, resized or retyped in MATLAB meanwhile
+		if (state == null || state.dataset.get() != activeDataset ||
+			!Arrays.equals(state.dims, dims) || !isUnchanged(name, dims,
+				activeDataset))
+		{
+			final long[] checksums = ijmService.getPlaneChecksums(activeDataset);
+			importDataset(name);
+			syncStates.put(name, new SyncState(activeDataset, dims, count,
+				checksums));
+			return;
+		}
+
+		// No update events: nothing changed since the last synchronization
+		if (state.modificationCount == count) return;
+
+		final long[] checksums = ijmService.getPlaneChecksums(activeDataset);
+		final String plane = MATLABWorkspace.temp("plane");
+		try {
+			for (final int p : MATLABArrays.changedPlanes(state.checksums,
+				checksums))
+			{
+				workspace().put(plane, ijmService.getPlaneArray(activeDataset, p));
+				workspace().eval(name + "(:,:," + (p + 1) + ") = " + plane + ";");
+			}
+			workspace().clear(plane);
+		}
+		catch (final ScriptException exc) {
+			// Force a full transfer next time, as the variable is inconsistent
+			syncStates.remove(name);
+			logService.error("Could not synchronize variable: " + name, exc);
+			return;
+		}
+
+		state.modificationCount = count;
+		state.checksums = checksums;
+	}
+
+	/**
+	 * Helper method to check that a synchronized variable still has the size
+	 * and class {@link #importDataset} gave it.
+	 */
+	private boolean isUnchanged(final String name, final long[] dims,
+		final Dataset dataset)
+	{
+		final String matlabClass = dataset.getType() instanceof BooleanType
+			? "logical" : "double";
+		try {
+			return workspace().matches(name, dims, matlabClass);
+		}
+		catch (final ScriptException exc) {
+			return false;
+		}
+	}
+
+	/**
+	 * Helper method to convert the result of an op to be assigned to a MATLAB
+	 * variable, in the most faithful form available, or null if there is
+	 * none.
+	 */
+	@SuppressWarnings("unchecked")
+	private Object convertResult(final String name, final Object result) {
+		final Object type = result instanceof RandomAccessibleInterval ? Util
+			.getTypeFromInterval((RandomAccessibleInterval<?>) result) : null;
+		if (type instanceof RealType) {
+			return ijmService.getTypedArray(
+				(RandomAccessibleInterval<? extends RealType<?>>) result);
+		}
+		if (type instanceof ComplexType) {
+			return ijmService.getComplexArray(
+				(RandomAccessibleInterval<? extends ComplexType<?>>) result);
+		}
+		if (result instanceof RealType) {
+			return ((RealType<?>) result).getRealDouble();
+		}
+		if (result instanceof Number || result instanceof String ||
+			result instanceof Boolean)
+		{
+			return result;
+		}
+		logService.info("Cannot assign op result of type " + (result == null
+			? null : result.getClass().getName()) + " to " + name);
+		return null;
+	}
+
+	/**
+	 * Helper method to assign an op result converted by
+	 * {@link #convertResult} to a MATLAB variable.
+	 */
+	private void assignResult(final String name, final Object value)
+		throws ScriptException
+	{
+		if (value instanceof MATLABTypedArray) {
+			workspace().putTyped(name, (MATLABTypedArray) value);
+		}
+		else if (value != null) workspace().put(name, value);
+	}
+
+	/**
+	 * Helper method to wait for a conversion running off MATLAB's thread, then
+	 * assign its result on the calling thread, as {@link MATLABTransfer} does.
+	 */
+	private <T> void assign(final String failure, final Future<T> conversion,
+		final Assignment<T> assignment)
+	{
+		final MATLABTransfer<T> transfer = new MATLABTransfer<>(conversion,
+			result -> {
+				try {
+					assignment.assign(result);
+				}
+				catch (final ScriptException exc) {
+					logService.error(failure, exc);
+				}
+			});
+		try {
+			transfer.await();
+		}
+		catch (final InterruptedException exc) {
+			transfer.cancel();
+			Thread.currentThread().interrupt();
+			logService.info(failure + ": interrupted");
+		}
+		catch (final ExecutionException exc) {
+			logService.error(failure, exc.getCause());
+		}
+	}
+
+	/**
+	 * Helper method to wait for the part of a command running off MATLAB's
+	 * thread, so that the command only returns once it is done.
+	 *
+	 * @return The result of the task, or null if it failed.
+	 */
+	private <T> T await(final String failure, final Future<T> task) {
+		try {
+			return task.get();
+		}
+		catch (final InterruptedException exc) {
+			task.cancel(true);
+			Thread.currentThread().interrupt();
+			logService.info(failure + ": interrupted");
+		}
+		catch (final ExecutionException exc) {
+			logService.error(failure, exc.getCause());
+		}
+		return null;
+	}
+
+	/**
+	 * Helper method to wrap an {@link ImgPlus} of unknown type as a
+	 * {@link Dataset}.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private Dataset createDataset(final ImgPlus<?> imgPlus) {
+		return datasetService.create((ImgPlus) imgPlus);
+	}
+
+	/**
+	 * Helper method to open a lazy view of a large real MATLAB array, or null
+	 * if the variable is anything else.
+	 */
+	private Dataset openLazily(final String matrix) {
+		try {
+			final String matlabClass = workspace().classOf(matrix);
+			if (!NUMERIC_CLASSES.contains(matlabClass)) return null;
+			final long[] dims = workspace().size(matrix);
+			if (!MATLABVirtualImg.isLarge(matlabClass, dims)) return null;
+
+			final String real = MATLABWorkspace.temp("real");
+			workspace().eval(real + " = double(isreal(" + matrix + "));");
+			final Object isReal = workspace().get(real);
+			workspace().clear(real);
+			if (!(isReal instanceof Number) || ((Number) isReal).doubleValue() == 0) {
+				return null;
+			}
+
+			return MATLABVirtualImg.open(workspace(), threadService, datasetService,
+				ijmService, matrix, matlabClass, dims);
+		}
+		catch (final ScriptException exc) {
+			// not a variable we can inspect; left to the regular conversion
+			return null;
+		}
+	}
+
+	/**
+	 * Helper method to get the active {@link Dataset}, or null if there is
+	 * none.
+	 */
+	private Dataset getActiveDataset() {
+		final Dataset activeDataset = imageDisplayService == null ? null
+			: imageDisplayService.getActiveDataset();
+
+		if (activeDataset == null) {
+			logService.info("No active image. Please open an image in ImageJ first.");
+		}
+		return activeDataset;
+	}
+
+	/**
+	 * Helper method to get a MATLAB variable as a {@link MatlabNumericArray},
+	 * or null if it is not a numeric array.
+	 */
+	private MatlabNumericArray getNumericArray(final String matrix) {
+		final Object o = workspace().get(matrix);
+
+		if (o instanceof MatlabNumericArray) return (MatlabNumericArray) o;
+
+		logService.info("Variable of name: " + matrix + " is not an array.");
+		return null;
+	}
+
+	/** Helper method to convert a 1-based MATLAB dimension order. */
+	private static int[] zeroBased(final long[] order) {
+		final int[] result = new int[order.length];
+		for (int d = 0; d < order.length; d++) {
+			result[d] = (int) order[d] - 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Helper method to find a {@link Dataset} by name, or null if there is
+	 * none.
+	 */
+	private Dataset findDataset(final String name) {
+		for (final Dataset dataset : datasetService.getDatasets()) {
+			if (name.equals(dataset.getName())) return dataset;
+		}
+		return null;
+	}
+
+	/**
+	 * Helper method to get the tile pyramid of a {@link Dataset}, building a
+	 * new one when the image changed since the last call.
+	 */
+	private TilePyramid pyramid(final Dataset dataset) throws IOException {
+		final long count = ijmService.getModificationCount(dataset);
+		synchronized (pyramids) {
+			// Dispose of the pyramids of collected Datasets, and their disk caches
+			for (Reference<? extends Dataset> ref; (ref = collectedPyramids
+				.poll()) != null;)
+			{
+				pyramids.remove(ref);
+				((PyramidState) ref).pyramid.dispose();
+			}
+
+			for (final PyramidState state : pyramids) {
+				if (state.get() != dataset) continue;
+				if (state.modificationCount == count) return state.pyramid;
+				pyramids.remove(state);
+				state.pyramid.dispose();
+				break;
+			}
+
+			File dir = null;
+			if (tileCache != null) {
+				Files.createDirectories(tileCache.toPath());
+				dir = Files.createTempDirectory(tileCache.toPath(), "ijm_tiles_")
+					.toFile();
+			}
+			final TilePyramid pyramid = new TilePyramid(dataset,
+				TilePyramid.CACHE_BYTES, dir);
+			pyramids.add(new PyramidState(dataset, collectedPyramids, pyramid,
+				count));
+			return pyramid;
+		}
+	}
+
+	private MATLABWorkspace workspace() {
+		if (workspace == null) {
+			workspace = new MATLABWorkspace(scriptService, matlabService);
+		}
+		return workspace;
+	}
+
+	// -- Helper classes --
+
+	/** Assignment of a converted value to MATLAB variables. */
+	private interface Assignment<T> {
+
+		void assign(T value) throws ScriptException;
+	}
+
+	/**
+	 * A tile pyramid, along with the image it was built from, weakly
+	 * referenced, and the version of that image.
+	 */
+	private static class PyramidState extends WeakReference<Dataset> {
+
+		private final TilePyramid pyramid;
+		private final long modificationCount;
+
+		private PyramidState(final Dataset dataset,
+			final ReferenceQueue<Dataset> queue, final TilePyramid pyramid,
+			final long modificationCount)
+		{
+			super(dataset, queue);
+			this.pyramid = pyramid;
+			this.modificationCount = modificationCount;
+		}
+	}
+
+	/**
+	 * Snapshot of the {@link Dataset} content last transferred to a MATLAB
+	 * variable.
+	 */
+	private static class SyncState {
+
+		private final WeakReference<Dataset> dataset;
+		private final long[] dims;
+		private long modificationCount;
+		private long[] checksums;
+
+		private SyncState(final Dataset dataset, final long[] dims,
+			final long modificationCount, final long[] checksums)
+		{
+			this.dataset = new WeakReference<>(dataset);
+			this.dims = dims;
+			this.modificationCount = modificationCount;
+			this.checksums = checksums;
+		}
 	}
 
 }
@@ -29,9 +29,18 @@
 
 package net.imagej.matlab;
 
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 import matlabcontrol.extensions.MatlabNumericArray;
 import net.imagej.Dataset;
 import net.imagej.ImageJService;
+import net.imagej.ImgPlus;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.ComplexType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexDoubleType;
+import net.imglib2.type.numeric.real.DoubleType;
 
 import org.scijava.service.Service;
 
@@ -54,4 +63,194 @@ public interface ImageJMATLABService extends ImageJService {
 	 * {@link Dataset}.
 	 */
 	Dataset getDataset(MatlabNumericArray array);
+
+	/**
+	 * Copies an image into a {@link MATLABTypedArray} of the MATLAB class best
+	 * matching its pixel type, e.g. {@code uint16} for
+	 * {@link net.imglib2.type.numeric.integer.UnsignedShortType}. Unlike
+	 * {@link #getArray(Dataset)}, the values are not widened to
+	 * {@code double}.
+	 */
+	MATLABTypedArray getTypedArray(
+		RandomAccessibleInterval<? extends RealType<?>> image);
+
+	/**
+	 * As {@link #getTypedArray(RandomAccessibleInterval)}, permuting the
+	 * dimensions while copying, as MATLAB's {@code permute} does: dimension
+	 * {@code k} of the result is dimension {@code order[k]} of the image, e.g.
+	 * with order {@code [1, 0]} to swap rows and columns.
+	 */
+	MATLABTypedArray getTypedArray(
+		RandomAccessibleInterval<? extends RealType<?>> image, int[] order);
+
+	/**
+	 * Copies an image into a {@link MATLABTypedArray} of the given MATLAB
+	 * class, mapping each value {@code v} to {@code v * scale + offset},
+	 * saturated to the range of the class, in the same pass.
+	 *
+	 * @param matlabClass A MATLAB numeric class name, e.g. {@code "single"}.
+	 */
+	MATLABTypedArray getTypedArray(
+		RandomAccessibleInterval<? extends RealType<?>> image, String matlabClass,
+		double scale, double offset);
+
+	/**
+	 * As {@link #getTypedArray(RandomAccessibleInterval, String, double,
+	 * double)}, rescaling the range of the image to [0, 1] for {@code single}
+	 * and {@code double}, or to the full range of integer classes. The range
+	 * of integer images is that of their type, e.g. [0, 65535] for
+	 * {@code uint16}; the range of floating point images is that of their
+	 * values.
+	 */
+	MATLABTypedArray getNormalizedArray(
+		RandomAccessibleInterval<? extends RealType<?>> image, String matlabClass);
+
+	/**
+	 * Converts any real-valued image to a {@link MatlabNumericArray}, as
+	 * {@link #getArray(Dataset)} does for {@link Dataset}s. Array and planar
+	 * storage is read in bulk.
+	 */
+	MatlabNumericArray getNumericArray(
+		RandomAccessibleInterval<? extends RealType<?>> image);
+
+	/**
+	 * Converts the real part of a {@link MatlabNumericArray} to an
+	 * {@link ImgPlus} of {@link DoubleType} with MATLAB axes, without going
+	 * through a {@link Dataset}.
+	 */
+	ImgPlus<DoubleType> getImgPlus(MatlabNumericArray array);
+
+	/**
+	 * Wraps a {@link MATLABTypedArray} as an {@link ImgPlus} of the matching
+	 * pixel type, with MATLAB axes. Numeric data is shared rather than copied.
+	 */
+	ImgPlus<?> getImgPlus(MATLABTypedArray array);
+
+	/**
+	 * As {@link #getImgPlus(MATLABTypedArray)}, permuting the dimensions of the
+	 * array as {@link #getTypedArray(RandomAccessibleInterval, int[])} does.
+	 * The permutation is the only copy made.
+	 */
+	ImgPlus<?> getImgPlus(MATLABTypedArray array, int[] order);
+
+	/**
+	 * Converts a possibly complex {@link MatlabNumericArray} to a
+	 * {@link ComplexDoubleType} {@link ImgPlus}, keeping its imaginary part,
+	 * which {@link #getDataset(MatlabNumericArray)} drops.
+	 */
+	ImgPlus<ComplexDoubleType> getComplexImg(MatlabNumericArray array);
+
+	/**
+	 * Converts a complex image, e.g. of {@link ComplexDoubleType} or
+	 * {@link net.imglib2.type.numeric.complex.ComplexFloatType}, to a
+	 * {@link MatlabNumericArray} holding both its real and imaginary parts.
+	 */
+	MatlabNumericArray getComplexArray(
+		RandomAccessibleInterval<? extends ComplexType<?>> image);
+
+	/**
+	 * Wraps a sparse matrix as a {@link Dataset} whose elements are looked up
+	 * lazily in the sparse storage, so memory use scales with the number of
+	 * nonzero elements.
+	 */
+	Dataset getDataset(MATLABSparseMatrix matrix);
+
+	/**
+	 * Collects the nonzero elements of a two-dimensional image into a sparse
+	 * matrix, without making a dense copy.
+	 */
+	MATLABSparseMatrix getSparseMatrix(
+		RandomAccessibleInterval<? extends RealType<?>> image);
+
+	/**
+	 * As {@link #getArray(Dataset)}, converting several {@link Dataset}s in
+	 * parallel. Conversions share a memory budget, so that large inputs do not
+	 * all hold their intermediate copies at the same time.
+	 *
+	 * @return The converted arrays, in the order of the given {@link Dataset}s.
+	 */
+	List<MatlabNumericArray> getArrays(List<Dataset> datasets);
+
+	/**
+	 * As {@link #getDataset(MatlabNumericArray)}, converting several
+	 * {@link MatlabNumericArray}s in parallel under a shared memory budget.
+	 *
+	 * @return The converted {@link Dataset}s, in the order of the given arrays.
+	 */
+	List<Dataset> getDatasets(List<MatlabNumericArray> arrays);
+
+	/**
+	 * Converts a single XY plane of a {@link Dataset} to a two-dimensional
+	 * {@link MatlabNumericArray}. Planes are numbered by their linear index
+	 * over all dimensions beyond the first two, as MATLAB does for
+	 * {@code matrix(:,:,k)}, but starting from 0.
+	 */
+	MatlabNumericArray getPlaneArray(Dataset dataset, long planeIndex);
+
+	/**
+	 * Computes a checksum of each XY plane of a {@link Dataset}, indexed as in
+	 * {@link #getPlaneArray(Dataset, long)}. Comparing two sets of checksums of
+	 * the same {@link Dataset} reveals which of its planes were modified.
+	 */
+	long[] getPlaneChecksums(Dataset dataset);
+
+	/**
+	 * Gets the number of times the pixel data of the given {@link Dataset} has
+	 * been reported as updated since this service started tracking it. Callers
+	 * holding a copy of the data only need to look for modified planes when
+	 * this count changed.
+	 */
+	long getModificationCount(Dataset dataset);
+
+	/**
+	 * Hands a {@link Dataset} which is no longer used over for reuse: later
+	 * conversions from MATLAB arrays of the same shape refill it rather than
+	 * allocating a new one. Reused buffers are kept within a bounded pool.
+	 * Only {@link Dataset}s this service converted from MATLAB arrays are
+	 * reused, others are just cleaned up. Displays of the {@link Dataset} are
+	 * closed first, on the event dispatch thread if there are any. The
+	 * {@link Dataset} must not be used after being released.
+	 */
+	void release(Dataset dataset);
+
+	/**
+	 * Hands the storage of a {@link MATLABTypedArray} which is no longer used,
+	 * e.g. once sent to MATLAB, over for reuse by later calls to
+	 * {@link #getTypedArray} of the same type and size.
+	 */
+	void release(MATLABTypedArray array);
+
+	/**
+	 * Tracks a {@link Dataset} created for a transfer from MATLAB, such as
+	 * those returned by {@link #getDataset(MatlabNumericArray)}, which are
+	 * tracked automatically. Tracked {@link Dataset}s are only weakly
+	 * referenced; they are released when their last display closes, when
+	 * passed to {@link #release(Dataset)}, or once idle for the time set with
+	 * {@link #setIdleTimeout(long)}.
+	 *
+	 * @param cleanup Action to run on release, e.g. clearing the MATLAB
+	 *          variable the {@link Dataset} reads from, or null.
+	 */
+	void track(Dataset dataset, Runnable cleanup);
+
+	/**
+	 * Gets the memory held by the tracked {@link Dataset}s still alive and by
+	 * the buffers pooled for reuse, in bytes.
+	 */
+	long getRetainedBytes();
+
+	/**
+	 * Sets the time after which tracked {@link Dataset}s neither displayed nor
+	 * updated are released, closing their displays. Disabled when 0, the
+	 * default.
+	 */
+	void setIdleTimeout(long millis);
+
+	/**
+	 * Gets the executor running conversions and transfers in the background,
+	 * off the thread MATLAB calls from. It runs a bounded number of tasks at a
+	 * time, on virtual threads when the JVM supports them. Tasks must not wait
+	 * for other tasks of the same executor.
+	 */
+	ExecutorService getExecutor();
 }
@@ -0,0 +1,357 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+import java.lang.reflect.Array;
+import java.util.stream.IntStream;
+
+/**
+ * Converts between flat MATLAB arrays and ImageJ 1.x {@link ImagePlus}
+ * hyperstacks in a single call, so that MATLAB scripts need not cross into
+ * Java once per plane.
+ * <p>
+ * The layout of the MATLAB array is given by a dimension order such as
+ * {@code "YXCZT"}: one letter per MATLAB dimension among X, Y, C (channels),
+ * Z (slices) and T (frames), the first two being X and Y in either order.
+ * Planes are converted in parallel.
+ * </p>
+ * <p>
+ * {@code uint8} and {@code logical} arrays become 8-bit images,
+ * {@code uint16} arrays 16-bit images, and all other classes 32-bit float
+ * images. The overloads taking a primitive array are meant to be called from
+ * MATLAB, e.g.
+ * {@code ImagePlusMATLAB.toImagePlus('name', I(:), int32(size(I)), 'YXCZT', false)}.
+ * </p>
+ */
+public final class ImagePlusMATLAB {
+
+	private static final String AXES = "XYCZT";
+
+	private static final int X = 0, Y = 1, C = 2, Z = 3, T = 4;
+
+	private ImagePlusMATLAB() {
+		// prevent instantiation of utility class
+	}
+
+	// -- MATLAB to ImagePlus --
+
+	public static ImagePlus toImagePlus(final String title, final boolean[] data,
+		final int[] dims, final String dimorder)
+	{
+		return toImagePlus(title, new MATLABTypedArray(data, longs(dims), false),
+			dimorder);
+	}
+
+	public static ImagePlus toImagePlus(final String title, final byte[] data,
+		final int[] dims, final String dimorder, final boolean unsigned)
+	{
+		return toImagePlus(title, new MATLABTypedArray(data, longs(dims),
+			unsigned), dimorder);
+	}
+
+	public static ImagePlus toImagePlus(final String title, final short[] data,
+		final int[] dims, final String dimorder, final boolean unsigned)
+	{
+		return toImagePlus(title, new MATLABTypedArray(data, longs(dims),
+			unsigned), dimorder);
+	}
+
+	public static ImagePlus toImagePlus(final String title, final int[] data,
+		final int[] dims, final String dimorder, final boolean unsigned)
+	{
+		return toImagePlus(title, new MATLABTypedArray(data, longs(dims),
+			unsigned), dimorder);
+	}
+
+	public static ImagePlus toImagePlus(final String title, final long[] data,
+		final int[] dims, final String dimorder, final boolean unsigned)
+	{
+		return toImagePlus(title, new MATLABTypedArray(data, longs(dims),
+			unsigned), dimorder);
+	}
+
+	public static ImagePlus toImagePlus(final String title, final float[] data,
+		final int[] dims, final String dimorder)
+	{
+		return toImagePlus(title, new MATLABTypedArray(data, longs(dims), false),
+			dimorder);
+	}
+
+	public static ImagePlus toImagePlus(final String title, final double[] data,
+		final int[] dims, final String dimorder)
+	{
+		return toImagePlus(title, new MATLABTypedArray(data, longs(dims), false),
+			dimorder);
+	}
+
+	/**
+	 * Builds a hyperstack holding a copy of the given MATLAB array.
+	 *
+	 * @param title The title of the new image.
+	 * @param array The MATLAB array, of up to five dimensions.
+	 * @param dimorder The meaning of each MATLAB dimension, e.g.
+	 *          {@code "YXCZT"}. Trailing letters beyond the dimensions of the
+	 *          array are allowed and denote singleton dimensions.
+	 */
+	public static ImagePlus toImagePlus(final String title,
+		final MATLABTypedArray array, final String dimorder)
+	{
+		final long[] dims = array.getDims();
+		final int[] axes = axes(dimorder, dims.length);
+		final int[] sizes = { 1, 1, 1, 1, 1 };
+		for (int d = 0; d < dims.length; d++) {
+			sizes[axes[d]] = (int) dims[d];
+		}
+		final boolean transposed = axes[0] == Y;
+		final int planeSize = sizes[X] * sizes[Y];
+		final int bitDepth = bitDepth(array.getMATLABClass());
+		// NB: planes needing no conversion are transposed in a single copy
+		final Object data = array.getData();
+		final boolean sameType = bitDepth == 16 || data instanceof float[] ||
+			bitDepth == 8 && data instanceof byte[];
+
+		final Object[] planes = new Object[sizes[C] * sizes[Z] * sizes[T]];
+		IntStream.range(0, planes.length).parallel().forEach(p -> {
+			// position of this MATLAB plane along the C, Z and T axes
+			final int[] pos = new int[AXES.length()];
+			int remainder = p;
+			for (int d = 2; d < dims.length; d++) {
+				pos[axes[d]] = remainder % (int) dims[d];
+				remainder /= (int) dims[d];
+			}
+			Object pixels;
+			if (transposed && sameType) {
+				pixels = Array.newInstance(data.getClass().getComponentType(),
+					planeSize);
+				MATLABArrays.transpose(data, p * planeSize, sizes[Y], sizes[X],
+					pixels, 0);
+			}
+			else {
+				pixels = toPixels(array, p * planeSize, planeSize, bitDepth);
+				if (transposed) {
+					pixels = MATLABArrays.transpose(pixels, sizes[Y], sizes[X]);
+				}
+			}
+			planes[(pos[T] * sizes[Z] + pos[Z]) * sizes[C] + pos[C]] = pixels;
+		});
+
+		final ImageStack stack = new ImageStack(sizes[X], sizes[Y], planes.length);
+		for (int i = 0; i < planes.length; i++) {
+			stack.setPixels(planes[i], i + 1);
+		}
+		final ImagePlus imp = new ImagePlus(title, stack);
+		imp.setDimensions(sizes[C], sizes[Z], sizes[T]);
+		if (planes.length > 1) imp.setOpenAsHyperStack(true);
+		return imp;
+	}
+
+	// -- ImagePlus to MATLAB --
+
+	/**
+	 * Copies a hyperstack into a new MATLAB array laid out in the given
+	 * dimension order. 8-bit images give {@code uint8} arrays, 16-bit images
+	 * {@code uint16} arrays and 32-bit images {@code single} arrays.
+	 *
+	 * @param imp The image to copy. RGB images are not supported.
+	 * @param dimorder The meaning of each MATLAB dimension, as a permutation of
+	 *          {@code "XYCZT"} whose first two letters are X and Y. Axes left
+	 *          out must be of size 1.
+	 */
+	public static MATLABTypedArray toTypedArray(final ImagePlus imp,
+		final String dimorder)
+	{
+		final String matlabClass = matlabClass(imp.getBitDepth());
+		final int[] sizes = { imp.getWidth(), imp.getHeight(), imp
+			.getNChannels(), imp.getNSlices(), imp.getNFrames() };
+		final int[] axes = axes(dimorder, 2);
+		final boolean[] used = new boolean[AXES.length()];
+		final long[] dims = new long[axes.length];
+		for (int d = 0; d < axes.length; d++) {
+			used[axes[d]] = true;
+			dims[d] = sizes[axes[d]];
+		}
+		for (int a = 0; a < used.length; a++) {
+			if (!used[a] && sizes[a] > 1) {
+				throw new IllegalArgumentException("Dimension order " + dimorder +
+					" lacks axis " + AXES.charAt(a) + " of size " + sizes[a]);
+			}
+		}
+
+		final MATLABTypedArray array = MATLABTypedArray.allocate(matlabClass,
+			dims);
+		final boolean transposed = axes[0] == Y;
+		final int planeSize = sizes[X] * sizes[Y];
+		final ImageStack stack = imp.getStack();
+		IntStream.range(0, stack.getSize()).parallel().forEach(n -> {
+			final int[] pos = new int[AXES.length()];
+			pos[C] = n % sizes[C];
+			pos[Z] = n / sizes[C] % sizes[Z];
+			pos[T] = n / (sizes[C] * sizes[Z]);
+			int p = 0;
+			for (int d = axes.length - 1; d >= 2; d--) {
+				p = p * (int) dims[d] + pos[axes[d]];
+			}
+			final Object pixels = stack.getPixels(n + 1);
+			if (transposed) {
+				MATLABArrays.transpose(pixels, 0, sizes[X], sizes[Y], array.getData(),
+					p * planeSize);
+			}
+			else {
+				System.arraycopy(pixels, 0, array.getData(), p * planeSize,
+					planeSize);
+			}
+		});
+		return array;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Maps each letter of a dimension order to the index of its axis in
+	 * {@link #AXES}.
+	 */
+	private static int[] axes(final String dimorder, final int numDims) {
+		final String order = dimorder.toUpperCase();
+		if (order.length() < Math.max(2, numDims) || !order.substring(0, 2)
+			.matches("XY|YX"))
+		{
+			throw new IllegalArgumentException("Invalid dimension order " +
+				dimorder + " for " + numDims + " dimensions");
+		}
+		final int[] axes = new int[order.length()];
+		for (int d = 0; d < axes.length; d++) {
+			axes[d] = AXES.indexOf(order.charAt(d));
+			if (axes[d] < 0 || order.indexOf(order.charAt(d)) != d) {
+				throw new IllegalArgumentException("Invalid dimension order " +
+					dimorder);
+			}
+		}
+		return axes;
+	}
+
+	private static int bitDepth(final String matlabClass) {
+		switch (matlabClass) {
+			case "uint8":
+			case "logical":
+				return 8;
+			case "uint16":
+				return 16;
+			default:
+				return 32;
+		}
+	}
+
+	private static String matlabClass(final int bitDepth) {
+		switch (bitDepth) {
+			case 8:
+				return "uint8";
+			case 16:
+				return "uint16";
+			case 32:
+				return "single";
+			default:
+				throw new IllegalArgumentException("Unsupported bit depth: " +
+					bitDepth);
+		}
+	}
+
+	/**
+	 * Copies a run of MATLAB elements into a new pixel array of the given bit
+	 * depth.
+	 */
+	private static Object toPixels(final MATLABTypedArray array,
+		final int offset, final int length, final int bitDepth)
+	{
+		final Object data = array.getData();
+		if (bitDepth == 8 && data instanceof boolean[]) {
+			final boolean[] s = (boolean[]) data;
+			final byte[] pixels = new byte[length];
+			for (int i = 0; i < length; i++) {
+				pixels[i] = s[offset + i] ? (byte) 1 : 0;
+			}
+			return pixels;
+		}
+		if (bitDepth == 8 || bitDepth == 16) {
+			final Object pixels = bitDepth == 8 ? new byte[length]
+				: new short[length];
+			System.arraycopy(data, offset, pixels, 0, length);
+			return pixels;
+		}
+
+		final float[] pixels = new float[length];
+		final boolean unsigned = array.isUnsigned();
+		if (data instanceof double[]) {
+			final double[] s = (double[]) data;
+			for (int i = 0; i < length; i++) {
+				pixels[i] = (float) s[offset + i];
+			}
+		}
+		else if (data instanceof float[]) {
+			System.arraycopy(data, offset, pixels, 0, length);
+		}
+		else if (data instanceof long[]) {
+			final long[] s = (long[]) data;
+			for (int i = 0; i < length; i++) {
+				final long v = s[offset + i];
+				pixels[i] = unsigned && v < 0 ? (v >>> 1) * 2f : v;
+			}
+		}
+		else if (data instanceof int[]) {
+			final int[] s = (int[]) data;
+			for (int i = 0; i < length; i++) {
+				pixels[i] = unsigned ? s[offset + i] & 0xffffffffL : s[offset + i];
+			}
+		}
+		else if (data instanceof short[]) {
+			final short[] s = (short[]) data;
+			for (int i = 0; i < length; i++) {
+				pixels[i] = s[offset + i];
+			}
+		}
+		else {
+			final byte[] s = (byte[]) data;
+			for (int i = 0; i < length; i++) {
+				pixels[i] = s[offset + i];
+			}
+		}
+		return pixels;
+	}
+
+	private static long[] longs(final int[] values) {
+		final long[] result = new long[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = values[i];
+		}
+		return result;
+	}
+}
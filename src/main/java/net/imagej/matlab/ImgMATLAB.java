@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Converts between MATLAB arrays and ImgLib2 images in a single call, backing
+ * the {@code copytoImg} and {@code copytoMatlab} script templates.
+ * <p>
+ * The first two dimensions are swapped on the way, so that an image has the
+ * same orientation in MATLAB, where the first dimension runs along rows (Y),
+ * as in ImgLib2, where it runs along X. Every MATLAB numeric class is
+ * supported, including 64-bit integers, along with {@code logical}.
+ * </p>
+ * <p>
+ * The overloads taking a primitive array are meant to be called from MATLAB,
+ * e.g. {@code ImgMATLAB.toImg(I(:), size(I), true)} for an unsigned integer
+ * array {@code I}.
+ * </p>
+ */
+public final class ImgMATLAB {
+
+	private ImgMATLAB() {
+		// prevent instantiation of utility class
+	}
+
+	// -- MATLAB to ImgLib2 --
+
+	public static Img<? extends RealType<?>> toImg(final boolean[] data,
+		final long[] dims)
+	{
+		return toImg(new MATLABTypedArray(data, dims, false));
+	}
+
+	public static Img<? extends RealType<?>> toImg(final byte[] data,
+		final long[] dims, final boolean unsigned)
+	{
+		return toImg(new MATLABTypedArray(data, dims, unsigned));
+	}
+
+	public static Img<? extends RealType<?>> toImg(final short[] data,
+		final long[] dims, final boolean unsigned)
+	{
+		return toImg(new MATLABTypedArray(data, dims, unsigned));
+	}
+
+	public static Img<? extends RealType<?>> toImg(final int[] data,
+		final long[] dims, final boolean unsigned)
+	{
+		return toImg(new MATLABTypedArray(data, dims, unsigned));
+	}
+
+	public static Img<? extends RealType<?>> toImg(final long[] data,
+		final long[] dims, final boolean unsigned)
+	{
+		return toImg(new MATLABTypedArray(data, dims, unsigned));
+	}
+
+	public static Img<? extends RealType<?>> toImg(final float[] data,
+		final long[] dims)
+	{
+		return toImg(new MATLABTypedArray(data, dims, false));
+	}
+
+	public static Img<? extends RealType<?>> toImg(final double[] data,
+		final long[] dims)
+	{
+		return toImg(new MATLABTypedArray(data, dims, false));
+	}
+
+	/**
+	 * Copies a MATLAB array into a new {@link net.imglib2.img.array.ArrayImg}
+	 * of the matching type, swapping its first two dimensions.
+	 */
+	public static Img<? extends RealType<?>> toImg(
+		final MATLABTypedArray array)
+	{
+		return MATLABArrays.toImg(array, swapXY(array.getDims().length));
+	}
+
+	// -- ImgLib2 to MATLAB --
+
+	/**
+	 * Copies any real-valued image, whether array, planar, cell or a view, into
+	 * a new MATLAB array of the matching class in a single pass, swapping its
+	 * first two dimensions. One-dimensional images become row vectors.
+	 * <p>
+	 * From MATLAB, the result is turned into an array with
+	 * {@code reshape(typecast(a.getData(), char(a.getMATLABClass())), double(a.getDims())')},
+	 * the {@code typecast} being needed for unsigned classes only.
+	 * </p>
+	 */
+	public static MATLABTypedArray toMATLAB(
+		final RandomAccessibleInterval<? extends RealType<?>> img)
+	{
+		final MATLABTypedArray array = MATLABArrays.toTypedArray(img, swapXY(img
+			.numDimensions()));
+		if (array.getDims().length >= 2) return array;
+		final long[] dims = { 1, array.getDims().length == 0 ? 1 : array
+			.getDims()[0] };
+		return new MATLABTypedArray(array.getData(), dims, array.isUnsigned());
+	}
+
+	// -- Helper methods --
+
+	/** Gets the order swapping the first two of the given dimensions. */
+	private static int[] swapXY(final int numDims) {
+		final int[] order = new int[numDims];
+		for (int d = 0; d < numDims; d++) {
+			order[d] = d;
+		}
+		if (numDims >= 2) {
+			order[0] = 1;
+			order[1] = 0;
+		}
+		return order;
+	}
+}
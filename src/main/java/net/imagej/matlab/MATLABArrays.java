@@ -0,0 +1,1031 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+import matlabcontrol.extensions.MatlabNumericArray;
+import matlabcontrol.extensions.MatlabNumericArray.DoubleArrayType;
+import net.imagej.Dataset;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.BooleanType;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.ComplexType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.complex.ComplexDoubleType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import org.scijava.util.ClassUtils;
+
+/**
+ * Static utility methods for moving pixel data between ImgLib2 images and
+ * MATLAB-compatible arrays.
+ * <p>
+ * All flat arrays handled here are in MATLAB's column-major order, which
+ * coincides with ImgLib2's flat iteration order: dimension 0 (MATLAB rows)
+ * varies fastest. An "XY plane" is the set of elements sharing the same
+ * position in every dimension beyond the first two.
+ * </p>
+ */
+public final class MATLABArrays {
+
+	private MATLABArrays() {
+		// NB: prevent instantiation of utility class.
+	}
+
+	// -- Typed array utilities --
+
+	/**
+	 * Gets the MATLAB axes matching the dimensions of a MATLAB array: X and Y
+	 * for the first two, then one "Page" axis per further dimension.
+	 */
+	public static AxisType[] axes(final int numDims) {
+		final AxisType[] axes = new AxisType[numDims];
+		for (int i = 0; i < axes.length; i++) {
+			if (i == 0) axes[i] = Axes.X;
+			else if (i == 1) axes[i] = Axes.Y;
+			else axes[i] = Axes.get("Page " + (i - 2), false);
+		}
+		return axes;
+	}
+
+	/**
+	 * Gets the name of the MATLAB class best matching the given ImgLib2 type.
+	 * Types without a direct MATLAB counterpart map to {@code "double"}.
+	 */
+	public static String matlabClass(final Object type) {
+		if (type instanceof BooleanType) return "logical";
+		if (type instanceof UnsignedByteType) return "uint8";
+		if (type instanceof ByteType) return "int8";
+		if (type instanceof UnsignedShortType) return "uint16";
+		if (type instanceof ShortType) return "int16";
+		if (type instanceof UnsignedIntType) return "uint32";
+		if (type instanceof IntType) return "int32";
+		if (type instanceof UnsignedLongType) return "uint64";
+		if (type instanceof LongType) return "int64";
+		if (type instanceof FloatType) return "single";
+		return "double";
+	}
+
+	/**
+	 * Wraps a typed MATLAB array as an {@link ArrayImg} of the matching type.
+	 * Numeric data is wrapped without copying, so the image and the array
+	 * share their elements.
+	 */
+	public static Img<? extends RealType<?>> toImg(
+		final MATLABTypedArray array)
+	{
+		final Object data = array.getData();
+		final long[] dims = array.getDims();
+		final boolean unsigned = array.isUnsigned();
+
+		if (data instanceof double[]) return ArrayImgs.doubles((double[]) data,
+			dims);
+		if (data instanceof float[]) return ArrayImgs.floats((float[]) data,
+			dims);
+		if (data instanceof long[]) {
+			return unsigned ? ArrayImgs.unsignedLongs((long[]) data, dims)
+				: ArrayImgs.longs((long[]) data, dims);
+		}
+		if (data instanceof int[]) {
+			return unsigned ? ArrayImgs.unsignedInts((int[]) data, dims)
+				: ArrayImgs.ints((int[]) data, dims);
+		}
+		if (data instanceof short[]) {
+			return unsigned ? ArrayImgs.unsignedShorts((short[]) data, dims)
+				: ArrayImgs.shorts((short[]) data, dims);
+		}
+		if (data instanceof byte[]) {
+			return unsigned ? ArrayImgs.unsignedBytes((byte[]) data, dims)
+				: ArrayImgs.bytes((byte[]) data, dims);
+		}
+
+		return toBitImg((boolean[]) data, dims);
+	}
+
+	/**
+	 * Copies a MATLAB {@code logical} array into a new {@link BitType}
+	 * {@link ArrayImg}, packing 64 elements into each storage word.
+	 *
+	 * @throws IllegalArgumentException If the number of values does not match
+	 *           the dimensions.
+	 */
+	public static ArrayImg<BitType, LongArray> toBitImg(final boolean[] values,
+		final long... dims)
+	{
+		final long size = Intervals.numElements(dims);
+		if (values.length != size) {
+			throw new IllegalArgumentException("Mask of " + values.length +
+				" elements does not match size " + Arrays.toString(dims));
+		}
+		final ArrayImg<BitType, LongArray> bits = ArrayImgs.bits(dims);
+		packBits(values, 0, values.length, bits.update(null)
+			.getCurrentStorageArray());
+		return bits;
+	}
+
+	/**
+	 * Copies an image into a new typed MATLAB array of the best matching
+	 * class, in a single pass.
+	 * <p>
+	 * Array and planar images whose storage already has the element type of
+	 * the result are copied in bulk; anything else, such as cell images and
+	 * views, is copied element by element in flat iteration order.
+	 * </p>
+	 */
+	public static MATLABTypedArray toTypedArray(
+		final RandomAccessibleInterval<? extends RealType<?>> image)
+	{
+		final String matlabClass = matlabClass(Util.getTypeFromInterval(image));
+		return copy(image, MATLABTypedArray.allocate(matlabClass, Intervals
+			.dimensionsAsLongArray(image)));
+	}
+
+	/**
+	 * As {@link #toTypedArray(RandomAccessibleInterval)}, copying into an
+	 * existing typed array of the matching class and size, e.g. one being
+	 * reused.
+	 *
+	 * @return The given array.
+	 */
+	public static MATLABTypedArray copy(
+		final RandomAccessibleInterval<? extends RealType<?>> image,
+		final MATLABTypedArray array)
+	{
+		if (!copyStorage(image, array.getData())) {
+			copyElements(image, array.getData());
+		}
+		return array;
+	}
+
+	/**
+	 * Wraps a typed MATLAB array as an {@link ArrayImg}, permuting its
+	 * dimensions on the way, e.g. with order {@code [1, 0]} to swap MATLAB
+	 * rows and columns. The permutation is the only copy made.
+	 *
+	 * @see #permute(Object, long[], int[])
+	 */
+	public static Img<? extends RealType<?>> toImg(
+		final MATLABTypedArray array, final int[] order)
+	{
+		return toImg(permute(array, order));
+	}
+
+	/**
+	 * Copies an image into a new typed MATLAB array, permuting its dimensions
+	 * on the way, in a single pass. Array images whose storage already has the
+	 * element type of the result are permuted straight from their storage;
+	 * other images are read through a permuted view.
+	 *
+	 * @see #permute(Object, long[], int[])
+	 */
+	public static MATLABTypedArray toTypedArray(
+		final RandomAccessibleInterval<? extends RealType<?>> image,
+		final int[] order)
+	{
+		checkPermutation(order, image.numDimensions());
+		final MATLABTypedArray storage = wrapStorage(image);
+		if (storage != null) return permute(storage, order);
+		return toTypedArray(permuteView(image, order));
+	}
+
+	/**
+	 * Copies a typed MATLAB array, permuting its dimensions.
+	 *
+	 * @see #permute(Object, long[], int[])
+	 */
+	public static MATLABTypedArray permute(final MATLABTypedArray array,
+		final int[] order)
+	{
+		return new MATLABTypedArray(permute(array.getData(), array.getDims(),
+			order), permute(array.getDims(), order), array.isUnsigned());
+	}
+
+	/**
+	 * Gets the image holding the pixels of the given one, looking through
+	 * {@link Dataset}s and {@link ImgPlus}es, so that the storage of the
+	 * array or planar image they wrap can be read directly.
+	 */
+	static RandomAccessibleInterval<?> storageImg(
+		final RandomAccessibleInterval<?> image)
+	{
+		RandomAccessibleInterval<?> img = image;
+		while (true) {
+			if (img instanceof Dataset) img = ((Dataset) img).getImgPlus();
+			else if (img instanceof ImgPlus) img = ((ImgPlus<?>) img).getImg();
+			else return img;
+		}
+	}
+
+	// -- Plane utilities --
+
+	/**
+	 * Gets the number of elements in one XY plane of the given dimensions.
+	 */
+	public static long planeSize(final Dimensions dims) {
+		long size = dims.dimension(0);
+		if (dims.numDimensions() > 1) size *= dims.dimension(1);
+		return size;
+	}
+
+	/**
+	 * Gets the number of XY planes of the given dimensions.
+	 */
+	public static long planeCount(final Dimensions dims) {
+		long count = 1;
+		for (int d = 2; d < dims.numDimensions(); d++) {
+			count *= dims.dimension(d);
+		}
+		return count;
+	}
+
+	/**
+	 * Computes a 64-bit checksum of each XY plane of the given image. Two
+	 * planes with equal content always produce equal checksums, so comparing
+	 * the checksums of two snapshots reveals which planes changed in between.
+	 */
+	public static long[] planeChecksums(
+		final RandomAccessibleInterval<? extends RealType<?>> image)
+	{
+		final long planeSize = planeSize(image);
+		final long[] checksums = new long[(int) planeCount(image)];
+
+		final Cursor<? extends RealType<?>> cursor =
+			Views.flatIterable(image).cursor();
+		for (int p = 0; p < checksums.length; p++) {
+			// FNV-1a over the raw bits of each value
+			long hash = 0xcbf29ce484222325L;
+			for (long i = 0; i < planeSize; i++) {
+				hash ^= Double.doubleToLongBits(cursor.next().getRealDouble());
+				hash *= 0x100000001b3L;
+			}
+			checksums[p] = hash;
+		}
+		return checksums;
+	}
+
+	/**
+	 * Gets the indices of the planes whose checksums differ between two
+	 * snapshots of the same image, as computed by {@link #planeChecksums}.
+	 */
+	public static int[] changedPlanes(final long[] previous,
+		final long[] current)
+	{
+		if (previous.length != current.length) {
+			throw new IllegalArgumentException("Plane counts differ: " +
+				previous.length + " != " + current.length);
+		}
+		int count = 0;
+		final int[] changed = new int[current.length];
+		for (int p = 0; p < current.length; p++) {
+			if (previous[p] != current[p]) changed[count++] = p;
+		}
+		return Arrays.copyOf(changed, count);
+	}
+
+	/**
+	 * Copies the XY plane with the given linear index out of an image, as a
+	 * column-major {@code double} array.
+	 */
+	public static double[] planeToDoubles(
+		final RandomAccessibleInterval<? extends RealType<?>> image,
+		final long planeIndex)
+	{
+		final double[] plane = new double[(int) planeSize(image)];
+		final Cursor<? extends RealType<?>> cursor =
+			Views.flatIterable(planeView(image, planeIndex)).cursor();
+		for (int i = 0; i < plane.length; i++) {
+			plane[i] = cursor.next().getRealDouble();
+		}
+		return plane;
+	}
+
+	/**
+	 * Gets a view of the XY plane with the given linear index. The view keeps
+	 * all dimensions of the source, with length 1 beyond the first two.
+	 */
+	public static <T> RandomAccessibleInterval<T> planeView(
+		final RandomAccessibleInterval<T> image, final long planeIndex)
+	{
+		final int numDims = image.numDimensions();
+		final long[] min = new long[numDims];
+		final long[] max = new long[numDims];
+		image.min(min);
+		image.max(max);
+
+		// Decompose the plane index into a position along each non-XY axis
+		long index = planeIndex;
+		for (int d = 2; d < numDims; d++) {
+			final long pos = image.min(d) + index % image.dimension(d);
+			min[d] = max[d] = pos;
+			index /= image.dimension(d);
+		}
+		return Views.interval(image, min, max);
+	}
+
+	// -- Primitive array utilities --
+
+	/**
+	 * Transposes a column-major {@code rows x cols} primitive array.
+	 *
+	 * @return A new array of the same type, holding the column-major
+	 *         {@code cols x rows} transpose.
+	 */
+	public static Object transpose(final Object src, final int rows,
+		final int cols)
+	{
+		final Object dest = Array.newInstance(src.getClass().getComponentType(),
+			rows * cols);
+		transpose(src, 0, rows, cols, dest, 0);
+		return dest;
+	}
+
+	/**
+	 * Transposes the column-major {@code rows x cols} matrix starting at
+	 * {@code srcOffset} in {@code src}, writing its column-major
+	 * {@code cols x rows} transpose at {@code destOffset} in {@code dest}, an
+	 * array of the same type.
+	 */
+	public static void transpose(final Object src, final int srcOffset,
+		final int rows, final int cols, final Object dest, final int destOffset)
+	{
+		copyTiled(src, srcOffset, rows, dest, destOffset, cols, cols, rows);
+	}
+
+	/**
+	 * Permutes the dimensions of a column-major primitive array, as MATLAB's
+	 * {@code permute} does: dimension {@code k} of the result is dimension
+	 * {@code order[k]} of the source.
+	 * <p>
+	 * Leading dimensions left in place are copied as contiguous runs. Otherwise,
+	 * the dimension becoming the fastest varying one and the one which was are
+	 * copied in square tiles, so that both the reads and the writes stay within
+	 * a few cache lines.
+	 * </p>
+	 *
+	 * @param dims The size of the source array.
+	 * @param order A permutation of {@code 0..dims.length-1}.
+	 * @return A new array of the same type, of size
+	 *         {@link #permute(long[], int[])}.
+	 */
+	public static Object permute(final Object src, final long[] dims,
+		final int[] order)
+	{
+		final long[] destDims = permute(dims, order);
+		final int n = dims.length;
+		final Object dest = Array.newInstance(src.getClass().getComponentType(),
+			Array.getLength(src));
+
+		// strides, in the source and in the result, of each result dimension
+		final int[] srcStrides = new int[n];
+		final int[] destStrides = new int[n];
+		final int[] strides = new int[n];
+		for (int d = 0, stride = 1; d < n; stride *= dims[d], d++) {
+			strides[d] = stride;
+		}
+		for (int d = 0, stride = 1; d < n; stride *= destDims[d], d++) {
+			srcStrides[d] = strides[order[d]];
+			destStrides[d] = stride;
+		}
+
+		int kept = 0;
+		int run = 1;
+		while (kept < n && order[kept] == kept) {
+			run *= dims[kept++];
+		}
+		if (kept == n) {
+			System.arraycopy(src, 0, dest, 0, Array.getLength(src));
+			return dest;
+		}
+		final int contiguous = kept > 0 ? 0 : indexOf(order, 0);
+
+		// iterate over the dimensions not handled by the inner copy
+		final int[] outer = new int[n - (kept > 0 ? kept : 2)];
+		long count = 1;
+		for (int d = 0, k = 0; d < n; d++) {
+			if (kept > 0 ? d < kept : d == 0 || d == contiguous) continue;
+			outer[k++] = d;
+			count *= destDims[d];
+		}
+		if (run == 0) count = 0;
+
+		final int[] pos = new int[outer.length];
+		int srcBase = 0, destBase = 0;
+		for (long i = 0; i < count; i++) {
+			if (kept > 0) System.arraycopy(src, srcBase, dest, destBase, run);
+			else copyTiled(src, srcBase, srcStrides[0], dest, destBase,
+				destStrides[contiguous], (int) destDims[0], (int) destDims[contiguous]);
+
+			for (int k = 0; k < outer.length; k++) {
+				final int d = outer[k];
+				srcBase += srcStrides[d];
+				destBase += destStrides[d];
+				if (++pos[k] < destDims[d]) break;
+				srcBase -= srcStrides[d] * (int) destDims[d];
+				destBase -= destStrides[d] * (int) destDims[d];
+				pos[k] = 0;
+			}
+		}
+		return dest;
+	}
+
+	/**
+	 * Gets the size of an array after {@link #permute(Object, long[], int[])}.
+	 *
+	 * @throws IllegalArgumentException If the order is not a permutation of
+	 *           the dimensions.
+	 */
+	public static long[] permute(final long[] dims, final int[] order) {
+		checkPermutation(order, dims.length);
+		final long[] result = new long[dims.length];
+		for (int d = 0; d < order.length; d++) {
+			result[d] = dims[order[d]];
+		}
+		return result;
+	}
+
+	/**
+	 * Checks that an order is a permutation of {@code 0..numDims-1}.
+	 *
+	 * @throws IllegalArgumentException If it is not.
+	 */
+	public static void checkPermutation(final int[] order, final int numDims) {
+		if (order.length != numDims) {
+			throw new IllegalArgumentException("Order " + Arrays.toString(order) +
+				" does not match " + numDims + " dimensions");
+		}
+		final boolean[] seen = new boolean[numDims];
+		for (final int d : order) {
+			if (d < 0 || d >= numDims || seen[d]) {
+				throw new IllegalArgumentException("Not a permutation: " + Arrays
+					.toString(order));
+			}
+			seen[d] = true;
+		}
+	}
+
+	// -- MatlabNumericArray utilities --
+
+	/**
+	 * Copies a possibly complex MATLAB array into a new
+	 * {@link ComplexDoubleType} {@link ArrayImg}, interleaving its real and
+	 * imaginary parts into the image storage in a single pass.
+	 */
+	public static ArrayImg<ComplexDoubleType, DoubleArray> toComplexImg(
+		final MatlabNumericArray array)
+	{
+		final int[] lengths = array.getLengths();
+		final long[] dims = new long[lengths.length];
+		for (int d = 0; d < dims.length; d++) {
+			dims[d] = lengths[d];
+		}
+		final ArrayImg<ComplexDoubleType, DoubleArray> img = ArrayImgs
+			.complexDoubles(dims);
+		final double[] storage = img.update(null).getCurrentStorageArray();
+		final boolean real = array.isReal();
+		for (int i = 0, n = array.getLength(); i < n; i++) {
+			storage[2 * i] = array.getRealValue(i);
+			if (!real) storage[2 * i + 1] = array.getImaginaryValue(i);
+		}
+		return img;
+	}
+
+	/**
+	 * Copies the real part of a MATLAB array into a new {@code double}
+	 * {@link MATLABTypedArray} of the same size, in a single pass.
+	 */
+	public static MATLABTypedArray toTypedArray(final MatlabNumericArray array) {
+		final int[] lengths = array.getLengths();
+		final long[] dims = new long[lengths.length];
+		for (int d = 0; d < dims.length; d++) {
+			dims[d] = lengths[d];
+		}
+		final double[] data = new double[array.getLength()];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = array.getRealValue(i);
+		}
+		return new MATLABTypedArray(data, dims, false);
+	}
+
+	/**
+	 * Copies a real-valued image into a new {@link MatlabNumericArray}, widening
+	 * its values to {@code double}. Unlike the element by element copy of
+	 * {@link Dataset}s, array and planar storage is read in bulk.
+	 */
+	public static MatlabNumericArray toNumericArray(
+		final RandomAccessibleInterval<? extends RealType<?>> image)
+	{
+		final MATLABTypedArray doubles = ConversionKernels.convert(image,
+			MATLABTypedArray.allocate("double", Intervals.dimensionsAsLongArray(
+				image)), 1, 0);
+		final int[] lengths = new int[Math.max(1, image.numDimensions())];
+		lengths[0] = 1;
+		for (int d = 0; d < image.numDimensions(); d++) {
+			lengths[d] = (int) image.dimension(d);
+		}
+		return toNumericArray((double[]) doubles.getData(), null, lengths);
+	}
+
+	/**
+	 * Copies a complex image into a new MATLAB array, splitting its real and
+	 * imaginary parts in a single pass. The interleaved storage of complex
+	 * array images is read directly.
+	 */
+	public static MatlabNumericArray toComplexArray(
+		final RandomAccessibleInterval<? extends ComplexType<?>> image)
+	{
+		final long size = Intervals.numElements(image);
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Image too large: " + size +
+				" elements");
+		}
+		final double[] real = new double[(int) size];
+		final double[] imag = new double[real.length];
+
+		final RandomAccessibleInterval<?> img = storageImg(image);
+		final Object storage = img instanceof ArrayImg
+			? ((ArrayDataAccess<?>) ((ArrayImg<?, ?>) img).update(null))
+				.getCurrentStorageArray() : null;
+		final Object type = Util.getTypeFromInterval(image);
+		if (type instanceof ComplexDoubleType && storage instanceof double[]) {
+			final double[] s = (double[]) storage;
+			for (int i = 0; i < real.length; i++) {
+				real[i] = s[2 * i];
+				imag[i] = s[2 * i + 1];
+			}
+		}
+		else if (type instanceof ComplexFloatType && storage instanceof float[]) {
+			final float[] s = (float[]) storage;
+			for (int i = 0; i < real.length; i++) {
+				real[i] = s[2 * i];
+				imag[i] = s[2 * i + 1];
+			}
+		}
+		else {
+			final Cursor<? extends ComplexType<?>> cursor = Views.flatIterable(image)
+				.cursor();
+			for (int i = 0; i < real.length; i++) {
+				final ComplexType<?> value = cursor.next();
+				real[i] = value.getRealDouble();
+				imag[i] = value.getImaginaryDouble();
+			}
+		}
+
+		final int[] lengths = new int[Math.max(1, image.numDimensions())];
+		for (int d = 0; d < image.numDimensions(); d++) {
+			lengths[d] = (int) image.dimension(d);
+		}
+		if (image.numDimensions() == 0) lengths[0] = 1;
+		return toNumericArray(real, imag, lengths);
+	}
+
+	/**
+	 * Wraps column-major {@code double} data as a {@link MatlabNumericArray}
+	 * with the given lengths.
+	 *
+	 * @param real The real part. Required.
+	 * @param imag The imaginary part, or null for a purely real array.
+	 * @param lengths The MATLAB size of the array.
+	 */
+	public static MatlabNumericArray toNumericArray(final double[] real,
+		final double[] imag, final int[] lengths)
+	{
+		// MATLAB arrays always have at least two dimensions
+		final int[] sizes =
+			lengths.length > 1 ? lengths : new int[] { lengths[0], 1 };
+
+		final Object realArrays = nest(real, sizes);
+		final Object imagArrays = imag == null ? null : nest(imag, sizes);
+
+		// Get the MatlabControl array type
+		@SuppressWarnings("rawtypes")
+		final DoubleArrayType type =
+			MatlabNumericArray.DoubleArrayType.getInstance(realArrays.getClass());
+
+		@SuppressWarnings("unchecked")
+		final MatlabNumericArray result =
+			new MatlabNumericArray(type, realArrays, imagArrays);
+
+		return result;
+	}
+
+	// -- Helper methods --
+
+	/** Edge length of the square tiles copied by {@link #copyTiled}. */
+	private static final int TILE = 32;
+
+	/**
+	 * Copies {@code src[srcBase + a * srcStride + b]} to
+	 * {@code dest[destBase + a + b * destStride]} for all {@code a < lenA} and
+	 * {@code b < lenB}, one square tile at a time.
+	 */
+	private static void copyTiled(final Object src, final int srcBase,
+		final int srcStride, final Object dest, final int destBase,
+		final int destStride, final int lenA, final int lenB)
+	{
+		if (src instanceof double[]) {
+			final double[] s = (double[]) src, d = (double[]) dest;
+			for (int b0 = 0; b0 < lenB; b0 += TILE) {
+				final int b1 = Math.min(lenB, b0 + TILE);
+				for (int a0 = 0; a0 < lenA; a0 += TILE) {
+					final int a1 = Math.min(lenA, a0 + TILE);
+					for (int b = b0; b < b1; b++) {
+						for (int a = a0; a < a1; a++) {
+							d[destBase + a + b * destStride] = s[srcBase + a * srcStride + b];
+						}
+					}
+				}
+			}
+		}
+		else if (src instanceof float[]) {
+			final float[] s = (float[]) src, d = (float[]) dest;
+			for (int b0 = 0; b0 < lenB; b0 += TILE) {
+				final int b1 = Math.min(lenB, b0 + TILE);
+				for (int a0 = 0; a0 < lenA; a0 += TILE) {
+					final int a1 = Math.min(lenA, a0 + TILE);
+					for (int b = b0; b < b1; b++) {
+						for (int a = a0; a < a1; a++) {
+							d[destBase + a + b * destStride] = s[srcBase + a * srcStride + b];
+						}
+					}
+				}
+			}
+		}
+		else if (src instanceof long[]) {
+			final long[] s = (long[]) src, d = (long[]) dest;
+			for (int b0 = 0; b0 < lenB; b0 += TILE) {
+				final int b1 = Math.min(lenB, b0 + TILE);
+				for (int a0 = 0; a0 < lenA; a0 += TILE) {
+					final int a1 = Math.min(lenA, a0 + TILE);
+					for (int b = b0; b < b1; b++) {
+						for (int a = a0; a < a1; a++) {
+							d[destBase + a + b * destStride] = s[srcBase + a * srcStride + b];
+						}
+					}
+				}
+			}
+		}
+		else if (src instanceof int[]) {
+			final int[] s = (int[]) src, d = (int[]) dest;
+			for (int b0 = 0; b0 < lenB; b0 += TILE) {
+				final int b1 = Math.min(lenB, b0 + TILE);
+				for (int a0 = 0; a0 < lenA; a0 += TILE) {
+					final int a1 = Math.min(lenA, a0 + TILE);
+					for (int b = b0; b < b1; b++) {
+						for (int a = a0; a < a1; a++) {
+							d[destBase + a + b * destStride] = s[srcBase + a * srcStride + b];
+						}
+					}
+				}
+			}
+		}
+		else if (src instanceof short[]) {
+			final short[] s = (short[]) src, d = (short[]) dest;
+			for (int b0 = 0; b0 < lenB; b0 += TILE) {
+				final int b1 = Math.min(lenB, b0 + TILE);
+				for (int a0 = 0; a0 < lenA; a0 += TILE) {
+					final int a1 = Math.min(lenA, a0 + TILE);
+					for (int b = b0; b < b1; b++) {
+						for (int a = a0; a < a1; a++) {
+							d[destBase + a + b * destStride] = s[srcBase + a * srcStride + b];
+						}
+					}
+				}
+			}
+		}
+		else if (src instanceof byte[]) {
+			final byte[] s = (byte[]) src, d = (byte[]) dest;
+			for (int b0 = 0; b0 < lenB; b0 += TILE) {
+				final int b1 = Math.min(lenB, b0 + TILE);
+				for (int a0 = 0; a0 < lenA; a0 += TILE) {
+					final int a1 = Math.min(lenA, a0 + TILE);
+					for (int b = b0; b < b1; b++) {
+						for (int a = a0; a < a1; a++) {
+							d[destBase + a + b * destStride] = s[srcBase + a * srcStride + b];
+						}
+					}
+				}
+			}
+		}
+		else if (src instanceof boolean[]) {
+			final boolean[] s = (boolean[]) src, d = (boolean[]) dest;
+			for (int b0 = 0; b0 < lenB; b0 += TILE) {
+				final int b1 = Math.min(lenB, b0 + TILE);
+				for (int a0 = 0; a0 < lenA; a0 += TILE) {
+					final int a1 = Math.min(lenA, a0 + TILE);
+					for (int b = b0; b < b1; b++) {
+						for (int a = a0; a < a1; a++) {
+							d[destBase + a + b * destStride] = s[srcBase + a * srcStride + b];
+						}
+					}
+				}
+			}
+		}
+		else {
+			throw new IllegalArgumentException("Unsupported array type: " + src
+				.getClass().getName());
+		}
+	}
+
+	private static int indexOf(final int[] values, final int value) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == value) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets a view of an image with its dimensions permuted as by
+	 * {@link #permute(Object, long[], int[])}.
+	 */
+	private static <T> RandomAccessibleInterval<T> permuteView(
+		final RandomAccessibleInterval<T> image, final int[] order)
+	{
+		// cur[k] is the source dimension currently at position k
+		final int[] cur = new int[order.length];
+		for (int d = 0; d < cur.length; d++) {
+			cur[d] = d;
+		}
+		RandomAccessibleInterval<T> view = image;
+		for (int k = 0; k < order.length; k++) {
+			final int j = indexOf(cur, order[k]);
+			if (j == k) continue;
+			view = Views.permute(view, k, j);
+			cur[j] = cur[k];
+			cur[k] = order[k];
+		}
+		return view;
+	}
+
+	/**
+	 * Wraps the storage of an array image as a typed MATLAB array, without
+	 * copying, if its element type matches the MATLAB class of the image type.
+	 *
+	 * @return The wrapped storage, or null if not applicable.
+	 */
+	private static MATLABTypedArray wrapStorage(
+		final RandomAccessibleInterval<? extends RealType<?>> image)
+	{
+		final RandomAccessibleInterval<?> img = storageImg(image);
+		if (!(img instanceof ArrayImg)) return null;
+		final Object storage = ((ArrayDataAccess<?>) ((ArrayImg<?, ?>) img)
+			.update(null)).getCurrentStorageArray();
+		final String matlabClass = matlabClass(Util.getTypeFromInterval(image));
+		final long[] dims = Intervals.dimensionsAsLongArray(image);
+		final Class<?> type = storage.getClass().getComponentType();
+		if (type == null || !type.isPrimitive() || type == char.class || //
+			Array.getLength(storage) != Intervals.numElements(image)) return null;
+		final MATLABTypedArray array = new MATLABTypedArray(storage, dims,
+			matlabClass.startsWith("uint"));
+		return array.getMATLABClass().equals(matlabClass) ? array : null;
+	}
+
+	/**
+	 * Bulk copies the storage arrays of an array or planar image into the
+	 * given destination, if their element types match.
+	 *
+	 * @return true if the data was copied.
+	 */
+	private static boolean copyStorage(final RandomAccessibleInterval<?> image,
+		final Object dest)
+	{
+		final int length = Array.getLength(dest);
+		// NB: BitType packs its values into the bits of long words
+		final boolean packed = dest instanceof boolean[] && Util
+			.getTypeFromInterval(image) instanceof BitType;
+		final RandomAccessibleInterval<?> img = storageImg(image);
+		if (img instanceof ArrayImg) {
+			final Object storage = ((ArrayDataAccess<?>) ((ArrayImg<?, ?>) img)
+				.update(null)).getCurrentStorageArray();
+			if (packed && storage instanceof long[]) {
+				unpackBits((long[]) storage, (boolean[]) dest, 0, length);
+				return true;
+			}
+			if (storage.getClass() != dest.getClass() || //
+				Array.getLength(storage) != length) return false;
+			System.arraycopy(storage, 0, dest, 0, length);
+			return true;
+		}
+		if (img instanceof PlanarImg) {
+			final PlanarImg<?, ?> planar = (PlanarImg<?, ?>) img;
+			final Object[] planes = new Object[planar.numSlices()];
+			final Class<?> storageClass = packed ? long[].class : dest.getClass();
+			int total = 0;
+			for (int i = 0; i < planes.length; i++) {
+				planes[i] = ((ArrayDataAccess<?>) planar.getPlane(i))
+					.getCurrentStorageArray();
+				if (planes[i].getClass() != storageClass) return false;
+				total += Array.getLength(planes[i]);
+			}
+			if (!packed && total != length) return false;
+			final int planeSize = (int) (planes.length == 0 ? 0 : length /
+				planes.length);
+			int offset = 0;
+			for (final Object plane : planes) {
+				if (packed) {
+					unpackBits((long[]) plane, (boolean[]) dest, offset, planeSize);
+					offset += planeSize;
+					continue;
+				}
+				final int planeLength = Array.getLength(plane);
+				System.arraycopy(plane, 0, dest, offset, planeLength);
+				offset += planeLength;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Packs {@code length} values starting at {@code offset} into the bits of
+	 * the given words, as {@link BitType} stores them: value {@code i} goes to
+	 * bit {@code i % 64} of word {@code i / 64}.
+	 */
+	private static void packBits(final boolean[] values, final int offset,
+		final int length, final long[] words)
+	{
+		for (int w = 0, i = 0; i < length; w++) {
+			final int end = Math.min(length, i + 64);
+			long word = 0;
+			for (int bit = 0; i < end; i++, bit++) {
+				if (values[offset + i]) word |= 1L << bit;
+			}
+			words[w] = word;
+		}
+	}
+
+	/**
+	 * Unpacks {@code length} values stored as by {@link #packBits} into the
+	 * given array, starting at {@code offset}. The array may hold anything
+	 * beforehand, e.g. when reused from a pool.
+	 */
+	private static void unpackBits(final long[] words, final boolean[] values,
+		final int offset, final int length)
+	{
+		for (int w = 0; w < words.length && (long) w * 64 < length; w++) {
+			final int start = offset + w * 64;
+			final int end = Math.min(offset + length, start + 64);
+			long word = words[w];
+			// zero words, the bulk of most masks, are cleared at once
+			if (word == 0) {
+				Arrays.fill(values, start, end, false);
+				continue;
+			}
+			for (int i = start; i < end; i++, word >>>= 1) {
+				values[i] = (word & 1) != 0;
+			}
+		}
+	}
+
+	/**
+	 * Copies an image element by element into the given destination, in flat
+	 * iteration order.
+	 */
+	private static void copyElements(
+		final RandomAccessibleInterval<? extends RealType<?>> image,
+		final Object dest)
+	{
+		final Cursor<? extends RealType<?>> c = Views.flatIterable(image).cursor();
+		if (dest instanceof double[]) {
+			final double[] d = (double[]) dest;
+			for (int i = 0; i < d.length; i++) {
+				d[i] = c.next().getRealDouble();
+			}
+		}
+		else if (dest instanceof float[]) {
+			final float[] d = (float[]) dest;
+			for (int i = 0; i < d.length; i++) {
+				d[i] = c.next().getRealFloat();
+			}
+		}
+		else if (dest instanceof long[]) {
+			final long[] d = (long[]) dest;
+			for (int i = 0; i < d.length; i++) {
+				d[i] = ((IntegerType<?>) c.next()).getIntegerLong();
+			}
+		}
+		else if (dest instanceof int[]) {
+			final int[] d = (int[]) dest;
+			for (int i = 0; i < d.length; i++) {
+				d[i] = (int) ((IntegerType<?>) c.next()).getIntegerLong();
+			}
+		}
+		else if (dest instanceof short[]) {
+			final short[] d = (short[]) dest;
+			for (int i = 0; i < d.length; i++) {
+				d[i] = (short) ((IntegerType<?>) c.next()).getIntegerLong();
+			}
+		}
+		else if (dest instanceof byte[]) {
+			final byte[] d = (byte[]) dest;
+			for (int i = 0; i < d.length; i++) {
+				d[i] = (byte) ((IntegerType<?>) c.next()).getIntegerLong();
+			}
+		}
+		else {
+			final boolean[] d = (boolean[]) dest;
+			for (int i = 0; i < d.length; i++) {
+				d[i] = c.next().getRealDouble() != 0;
+			}
+		}
+	}
+
+	/**
+	 * Builds the nested {@code double} arrays expected by
+	 * {@link MatlabNumericArray} from column-major data, so that
+	 * {@code nested[i0][i1]...[iN]} holds the element at MATLAB subscript
+	 * {@code (i0+1, i1+1, ..., iN+1)}.
+	 */
+	private static Object nest(final double[] flat, final int[] lengths) {
+		// Stride in the flat array for one step along each dimension
+		final int[] strides = new int[lengths.length];
+		strides[0] = 1;
+		for (int d = 1; d < lengths.length; d++) {
+			strides[d] = strides[d - 1] * lengths[d - 1];
+		}
+
+		// Component class of the array built at each depth
+		final Class<?>[] components = new Class<?>[lengths.length];
+		Class<?> c = double.class;
+		for (int d = lengths.length - 1; d >= 0; d--) {
+			components[d] = c;
+			c = ClassUtils.getArrayClass(c);
+		}
+
+		return nest(flat, lengths, strides, components, 0, 0);
+	}
+
+	private static Object nest(final double[] flat, final int[] lengths,
+		final int[] strides, final Class<?>[] components, final int d,
+		final int offset)
+	{
+		if (d == lengths.length - 1) {
+			final double[] values = new double[lengths[d]];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = flat[offset + i * strides[d]];
+			}
+			return values;
+		}
+		final Object[] arrays = (Object[]) Array.newInstance(components[d],
+			lengths[d]);
+		for (int i = 0; i < arrays.length; i++) {
+			arrays[i] = nest(flat, lengths, strides, components, d + 1, offset + i *
+				strides[d]);
+		}
+		return arrays;
+	}
+
+}
@@ -0,0 +1,296 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.FloatPolygon;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Compact encodings of label images and ROIs for exchange with MATLAB.
+ * <p>
+ * Label images are encoded as in the {@code PixelIdxList} of MATLAB's
+ * {@code bwconncomp}: for each label, the sorted 1-based linear indices of
+ * its pixels. All lists are shipped as a single concatenated vector along
+ * with the count of each list, so the size of a transfer depends on the
+ * number of labelled pixels rather than on the size of the image. ROIs are
+ * encoded as polygons in the same way, as concatenated vertex coordinates
+ * along with the vertex count of each polygon.
+ * </p>
+ */
+final class MATLABLabels {
+
+	private MATLABLabels() {
+		// prevent instantiation of utility class
+	}
+
+	// -- Label images --
+
+	/**
+	 * Encodes the non-zero labels of an image, in two passes and without any
+	 * dense copy of it.
+	 */
+	static Regions encode(
+		final RandomAccessibleInterval<? extends IntegerType<?>> labels)
+	{
+		// First pass: count the pixels of each label. Neighbouring pixels
+		// mostly share their label, so the last counter is looked up once only.
+		final Map<Long, int[]> counts = new TreeMap<>();
+		Cursor<? extends IntegerType<?>> cursor = Views.flatIterable(labels)
+			.cursor();
+		long last = 0;
+		int[] count = null;
+		while (cursor.hasNext()) {
+			final long label = cursor.next().getIntegerLong();
+			if (label == 0) continue;
+			if (label != last) {
+				last = label;
+				count = counts.get(label);
+				if (count == null) counts.put(label, count = new int[1]);
+			}
+			count[0]++;
+		}
+
+		// Lay out one run of indices per label, in ascending label order
+		final Regions regions = new Regions(counts.size());
+		final Map<Long, int[]> offsets = new TreeMap<>();
+		int k = 0, total = 0;
+		for (final Map.Entry<Long, int[]> entry : counts.entrySet()) {
+			regions.labels[k] = entry.getKey();
+			regions.counts[k++] = entry.getValue()[0];
+			offsets.put(entry.getKey(), new int[] { total });
+			total += entry.getValue()[0];
+		}
+
+		// Second pass: write the 1-based indices, which come out sorted
+		regions.indices = new double[total];
+		cursor = Views.flatIterable(labels).cursor();
+		int[] offset = null;
+		last = 0;
+		for (long index = 1; cursor.hasNext(); index++) {
+			final long label = cursor.next().getIntegerLong();
+			if (label == 0) continue;
+			if (label != last) {
+				last = label;
+				offset = offsets.get(label);
+			}
+			regions.indices[offset[0]++] = index;
+		}
+		return regions;
+	}
+
+	/**
+	 * Builds a label image of the given size from concatenated 1-based pixel
+	 * indices, pixels of the k-th run getting label k. The smallest unsigned
+	 * type holding all labels is used.
+	 */
+	static Img<? extends RealType<?>> decode(final double[] indices,
+		final double[] counts, final long[] dims)
+	{
+		long total = 0;
+		for (final double count : counts) {
+			total += (long) count;
+		}
+		if (total != indices.length) {
+			throw new IllegalArgumentException("Counts add up to " + total +
+				" but there are " + indices.length + " indices");
+		}
+
+		final int n = counts.length;
+		final MATLABTypedArray array = MATLABTypedArray.allocate(n < 256
+			? "uint8" : n < 65536 ? "uint16" : "uint32", dims);
+		final Object data = array.getData();
+		final int size = array.length();
+		int pos = 0;
+		for (int k = 0; k < n; k++) {
+			final int label = k + 1;
+			final int end = pos + (int) counts[k];
+			for (; pos < end; pos++) {
+				final double index = indices[pos];
+				if (index < 1 || index > size) {
+					throw new IllegalArgumentException("Index " + index +
+						" out of bounds for " + size + " pixels");
+				}
+				if (data instanceof byte[]) ((byte[]) data)[(int) index - 1] =
+					(byte) label;
+				else if (data instanceof short[]) ((short[]) data)[(int) index - 1] =
+					(short) label;
+				else ((int[]) data)[(int) index - 1] = label;
+			}
+		}
+		return MATLABArrays.toImg(array);
+	}
+
+	/**
+	 * Gets MATLAB code building a {@code bwconncomp} style struct from the
+	 * variables holding the parts of the given regions. The struct also has a
+	 * {@code LabelValues} field giving the label of each region.
+	 */
+	static String struct(final Regions regions, final long[] dims,
+		final String indices, final String counts, final String labels)
+	{
+		final long connectivity = Math.round(Math.pow(3, dims.length)) - 1;
+		final String pixelIdxList = regions.counts.length == 0 ? "cell(1, 0)"
+			: "mat2cell(" + indices + "(:), " + counts + "(:), 1)'";
+		return "struct('Connectivity', " + connectivity + ", 'ImageSize', " +
+			MATLABWorkspace.size(dims) + ", 'NumObjects', " + regions.counts.length +
+			", 'PixelIdxList', {" + pixelIdxList + "}, 'LabelValues', " + labels +
+			"(:)')";
+	}
+
+	// -- ROIs --
+
+	/**
+	 * Encodes the outlines of the given ROIs as polygons, in ImageJ pixel
+	 * coordinates.
+	 */
+	static Polygons encode(final Roi[] rois) {
+		final Polygons polygons = new Polygons(rois.length);
+		final List<FloatPolygon> outlines = new ArrayList<>(rois.length);
+		int total = 0;
+		for (int i = 0; i < rois.length; i++) {
+			final FloatPolygon outline = rois[i].getFloatPolygon();
+			outlines.add(outline);
+			polygons.names[i] = rois[i].getName() == null ? "" : rois[i]
+				.getName();
+			polygons.counts[i] = outline.npoints;
+			total += outline.npoints;
+		}
+
+		polygons.xs = new double[total];
+		polygons.ys = new double[total];
+		int pos = 0;
+		for (final FloatPolygon outline : outlines) {
+			for (int p = 0; p < outline.npoints; p++, pos++) {
+				polygons.xs[pos] = outline.xpoints[p];
+				polygons.ys[pos] = outline.ypoints[p];
+			}
+		}
+		return polygons;
+	}
+
+	/**
+	 * Builds polygon ROIs from concatenated vertex coordinates, the k-th
+	 * polygon having {@code counts[k]} vertices.
+	 */
+	static List<Roi> decode(final double[] xs, final double[] ys,
+		final double[] counts)
+	{
+		if (xs.length != ys.length) {
+			throw new IllegalArgumentException("Got " + xs.length +
+				" x coordinates but " + ys.length + " y coordinates");
+		}
+		final List<Roi> rois = new ArrayList<>(counts.length);
+		int pos = 0;
+		for (final double c : counts) {
+			final int count = (int) c;
+			if (pos + count > xs.length) {
+				throw new IllegalArgumentException("Counts exceed the " + xs.length +
+					" vertices");
+			}
+			final float[] x = new float[count];
+			final float[] y = new float[count];
+			for (int p = 0; p < count; p++, pos++) {
+				x[p] = (float) xs[pos];
+				y[p] = (float) ys[pos];
+			}
+			rois.add(new PolygonRoi(x, y, count, Roi.POLYGON));
+		}
+		return rois;
+	}
+
+	/**
+	 * Gets MATLAB code building a struct array with fields {@code Name},
+	 * {@code X} and {@code Y} from the variables holding the parts of the
+	 * given polygons. The names variable must hold a cell array of the
+	 * {@link Polygons#names}, as made by {@link #toCell(String)}, so that each
+	 * name is kept as is, even with newlines in it.
+	 */
+	static String struct(final Polygons polygons, final String names,
+		final String xs, final String ys, final String counts)
+	{
+		if (polygons.counts.length == 0) {
+			return "struct('Name', {}, 'X', {}, 'Y', {})";
+		}
+		return "struct('Name', reshape(cellstr(" + names + "), 1, []), " +
+			"'X', mat2cell(" + xs + "(:), " + counts + "(:), 1)', " +
+			"'Y', mat2cell(" + ys + "(:), " + counts + "(:), 1)')";
+	}
+
+	/**
+	 * Gets MATLAB code turning a variable assigned a Java {@code String[]}
+	 * into a cell array, if MATLAB did not already convert it to one.
+	 */
+	static String toCell(final String names) {
+		return "if ~iscell(" + names + "), " + names + " = cell(" + names +
+			"); end;";
+	}
+
+	// -- Helper classes --
+
+	/** Label regions encoded as concatenated pixel index lists. */
+	static class Regions {
+
+		final double[] labels;
+		final double[] counts;
+		double[] indices;
+
+		private Regions(final int count) {
+			labels = new double[count];
+			counts = new double[count];
+		}
+	}
+
+	/** Polygons encoded as concatenated vertex coordinates. */
+	static class Polygons {
+
+		final String[] names;
+		final double[] counts;
+		double[] xs;
+		double[] ys;
+
+		private Polygons(final int count) {
+			names = new String[count];
+			counts = new double[count];
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.lang.reflect.Type;
+
+import matlabcontrol.extensions.MatlabNumericArray;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Util;
+
+import org.scijava.Priority;
+import org.scijava.convert.AbstractConverter;
+import org.scijava.convert.Converter;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * {@link Converter} implementation for converting real-valued
+ * {@link RandomAccessibleInterval}s, such as script parameters of image types,
+ * to {@link MatlabNumericArray}. Array and planar storage, including that of
+ * {@link net.imagej.Dataset}s, is read in bulk rather than element by element.
+ *
+ * @see MATLABDatasetConverter
+ */
+@SuppressWarnings("rawtypes")
+@Plugin(type = Converter.class, priority = Priority.NORMAL_PRIORITY)
+public class MATLABRealImgConverter extends
+	AbstractConverter<RandomAccessibleInterval, MatlabNumericArray>
+{
+
+	@Parameter
+	private ImageJMATLABService ijmService;
+
+	// -- Converter methods --
+
+	@Override
+	public boolean canConvert(final Object src, final Type dest) {
+		return isReal(src) && super.canConvert(src, dest);
+	}
+
+	@Override
+	public boolean canConvert(final Object src, final Class<?> dest) {
+		return isReal(src) && super.canConvert(src, dest);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T convert(final Object src, final Class<T> dest) {
+		return (T) ijmService.getNumericArray(
+			(RandomAccessibleInterval<? extends RealType<?>>) src);
+	}
+
+	@Override
+	public Class<MatlabNumericArray> getOutputType() {
+		return MatlabNumericArray.class;
+	}
+
+	@Override
+	public Class<RandomAccessibleInterval> getInputType() {
+		return RandomAccessibleInterval.class;
+	}
+
+	// -- Helper methods --
+
+	private boolean isReal(final Object src) {
+		return src instanceof RandomAccessibleInterval && Util.getTypeFromInterval(
+			(RandomAccessibleInterval<?>) src) instanceof RealType;
+	}
+}
@@ -0,0 +1,262 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.util.Arrays;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.position.FunctionRandomAccessible;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.view.Views;
+
+/**
+ * A two-dimensional sparse matrix in compressed sparse column (CSC) form, as
+ * MATLAB stores sparse matrices: the row indices and values of the nonzero
+ * elements, column after column, along with the offset at which each column
+ * starts. Memory use scales with the number of nonzero elements rather than
+ * with the size of the matrix.
+ */
+public class MATLABSparseMatrix {
+
+	private final int rows;
+
+	private final int cols;
+
+	private final int[] columnStarts;
+
+	private final int[] rowIndices;
+
+	private final double[] values;
+
+	private MATLABSparseMatrix(final int rows, final int cols,
+		final int[] columnStarts, final int[] rowIndices, final double[] values)
+	{
+		this.rows = rows;
+		this.cols = cols;
+		this.columnStarts = columnStarts;
+		this.rowIndices = rowIndices;
+		this.values = values;
+	}
+
+	/**
+	 * Builds a sparse matrix from triplets, as MATLAB's
+	 * {@code sparse(i, j, v, m, n)} does: values sharing the same position are
+	 * added up, and resulting zeros are dropped.
+	 *
+	 * @param i The 1-based row index of each value.
+	 * @param j The 1-based column index of each value.
+	 * @param v The values.
+	 * @param m The number of rows.
+	 * @param n The number of columns.
+	 */
+	public static MATLABSparseMatrix fromTriplets(final double[] i,
+		final double[] j, final double[] v, final long m, final long n)
+	{
+		if (i.length != j.length || i.length != v.length) {
+			throw new IllegalArgumentException("Triplets of unequal lengths: " +
+				i.length + ", " + j.length + ", " + v.length);
+		}
+		if (m > Integer.MAX_VALUE || n > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Matrix too large: " + m + " x " + n);
+		}
+		final int rows = (int) m, cols = (int) n;
+		final int[] r = new int[i.length];
+		final int[] c = new int[j.length];
+		for (int k = 0; k < r.length; k++) {
+			r[k] = (int) i[k] - 1;
+			c[k] = (int) j[k] - 1;
+			if (r[k] < 0 || r[k] >= rows || c[k] < 0 || c[k] >= cols) {
+				throw new IllegalArgumentException("Index (" + i[k] + ", " + j[k] +
+					") out of bounds for " + m + " x " + n);
+			}
+		}
+
+		// Stable counting sorts by row, then by column, give column-major order
+		final int[] byRow = countingSort(r, rows, identity(r.length));
+		final int[] order = countingSort(c, cols, byRow);
+
+		// Merge duplicates and drop zeros, column by column
+		final int[] columnStarts = new int[cols + 1];
+		final int[] rowIndices = new int[order.length];
+		final double[] sums = new double[order.length];
+		int nnz = 0;
+		for (int k = 0; k < order.length;) {
+			final int row = r[order[k]], col = c[order[k]];
+			double sum = 0;
+			for (; k < order.length && r[order[k]] == row && c[order[k]] == col; k++)
+			{
+				sum += v[order[k]];
+			}
+			if (sum == 0) continue;
+			rowIndices[nnz] = row;
+			sums[nnz++] = sum;
+			columnStarts[col + 1]++;
+		}
+		for (int col = 0; col < cols; col++) {
+			columnStarts[col + 1] += columnStarts[col];
+		}
+		return new MATLABSparseMatrix(rows, cols, columnStarts, Arrays.copyOf(
+			rowIndices, nnz), Arrays.copyOf(sums, nnz));
+	}
+
+	/**
+	 * Collects the nonzero elements of a two-dimensional image, the first
+	 * dimension giving the rows, in two passes and without any dense copy.
+	 */
+	public static MATLABSparseMatrix fromImage(
+		final RandomAccessibleInterval<? extends RealType<?>> image)
+	{
+		if (image.numDimensions() != 2) {
+			throw new IllegalArgumentException("Sparse matrices are 2D, not " + image
+				.numDimensions() + "D");
+		}
+		final int rows = (int) image.dimension(0), cols = (int) image.dimension(1);
+		final int[] columnStarts = new int[cols + 1];
+		Cursor<? extends RealType<?>> cursor = Views.flatIterable(image)
+			.cursor();
+		for (int col = 0; col < cols; col++) {
+			int count = 0;
+			for (int row = 0; row < rows; row++) {
+				if (cursor.next().getRealDouble() != 0) count++;
+			}
+			columnStarts[col + 1] = columnStarts[col] + count;
+		}
+
+		final int[] rowIndices = new int[columnStarts[cols]];
+		final double[] values = new double[rowIndices.length];
+		cursor = Views.flatIterable(image).cursor();
+		for (int k = 0, col = 0; col < cols; col++) {
+			for (int row = 0; row < rows; row++) {
+				final double value = cursor.next().getRealDouble();
+				if (value == 0) continue;
+				rowIndices[k] = row;
+				values[k++] = value;
+			}
+		}
+		return new MATLABSparseMatrix(rows, cols, columnStarts, rowIndices,
+			values);
+	}
+
+	/** Gets the number of rows. */
+	public int getRows() {
+		return rows;
+	}
+
+	/** Gets the number of columns. */
+	public int getColumns() {
+		return cols;
+	}
+
+	/** Gets the number of nonzero elements. */
+	public int nonZeros() {
+		return values.length;
+	}
+
+	/**
+	 * Gets the element at the given 0-based position, by binary search within
+	 * its column.
+	 */
+	public double get(final long row, final long col) {
+		final int start = columnStarts[(int) col];
+		final int end = columnStarts[(int) col + 1];
+		final int k = Arrays.binarySearch(rowIndices, start, end, (int) row);
+		return k >= 0 ? values[k] : 0;
+	}
+
+	/**
+	 * Gets a lazy view of the matrix as a {@code rows x cols} image: elements
+	 * are looked up on access, and nothing dense is ever allocated.
+	 */
+	public RandomAccessibleInterval<DoubleType> view() {
+		final FunctionRandomAccessible<DoubleType> function =
+			new FunctionRandomAccessible<>(2, (position, value) -> value.set(get(
+				position.getLongPosition(0), position.getLongPosition(1))),
+				DoubleType::new);
+		return Views.interval(function, new FinalInterval(rows, cols));
+	}
+
+	/** Gets the 1-based row index of each nonzero element, as MATLAB's find. */
+	public double[] getRowTriplets() {
+		final double[] i = new double[values.length];
+		for (int k = 0; k < i.length; k++) {
+			i[k] = rowIndices[k] + 1;
+		}
+		return i;
+	}
+
+	/**
+	 * Gets the 1-based column index of each nonzero element, as MATLAB's find.
+	 */
+	public double[] getColumnTriplets() {
+		final double[] j = new double[values.length];
+		for (int col = 0; col < cols; col++) {
+			Arrays.fill(j, columnStarts[col], columnStarts[col + 1], col + 1);
+		}
+		return j;
+	}
+
+	/** Gets the value of each nonzero element, in column-major order. */
+	public double[] getValues() {
+		return values;
+	}
+
+	// -- Helper methods --
+
+	private static int[] identity(final int length) {
+		final int[] indices = new int[length];
+		for (int k = 0; k < length; k++) {
+			indices[k] = k;
+		}
+		return indices;
+	}
+
+	/**
+	 * Stably sorts the given element indices by key.
+	 */
+	private static int[] countingSort(final int[] keys, final int range,
+		final int[] indices)
+	{
+		final int[] starts = new int[range + 1];
+		for (final int key : keys) {
+			starts[key + 1]++;
+		}
+		for (int k = 0; k < range; k++) {
+			starts[k + 1] += starts[k];
+		}
+		final int[] sorted = new int[indices.length];
+		for (final int index : indices) {
+			sorted[starts[keys[index]]++] = index;
+		}
+		return sorted;
+	}
+}
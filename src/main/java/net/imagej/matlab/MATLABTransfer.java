@@ -0,0 +1,127 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Handle to a transfer between ImageJ and MATLAB running in the background,
+ * returned to MATLAB by the asynchronous IJM commands.
+ * <p>
+ * The conversion itself runs on an ImageJ thread. Anything which has to
+ * happen on MATLAB's own thread, such as assigning the resulting variable,
+ * is deferred until MATLAB calls {@link #await()}. So MATLAB can poll
+ * {@link #isDone()}, keep computing meanwhile, and only block once it
+ * actually needs the result.
+ * </p>
+ *
+ * @param <T> Type of the background conversion result.
+ */
+public class MATLABTransfer<T> {
+
+	private final Future<T> future;
+
+	private final Consumer<T> completion;
+
+	private boolean completed;
+
+	MATLABTransfer(final Future<T> future, final Consumer<T> completion) {
+		this.future = future;
+		this.completion = completion;
+	}
+
+	/**
+	 * Checks whether the background part of this transfer has finished, either
+	 * normally, with an error, or by cancellation.
+	 */
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	/**
+	 * Checks whether this transfer was cancelled.
+	 */
+	public boolean isCancelled() {
+		return future.isCancelled();
+	}
+
+	/**
+	 * Attempts to cancel this transfer.
+	 *
+	 * @return false if the transfer could not be cancelled, typically because
+	 *         it already finished.
+	 */
+	public boolean cancel() {
+		return future.cancel(true);
+	}
+
+	/**
+	 * Waits for this transfer to finish, then completes it on the calling
+	 * thread.
+	 *
+	 * @throws ExecutionException If the background conversion failed.
+	 */
+	public void await() throws InterruptedException, ExecutionException {
+		complete(future.get());
+	}
+
+	/**
+	 * Waits at most the given number of seconds for this transfer to finish,
+	 * completing it on the calling thread if it did.
+	 *
+	 * @return true if the transfer finished in time.
+	 * @throws ExecutionException If the background conversion failed.
+	 */
+	public boolean await(final double seconds) throws InterruptedException,
+		ExecutionException
+	{
+		final T result;
+		try {
+			result = future.get((long) (seconds * 1e9), TimeUnit.NANOSECONDS);
+		}
+		catch (final TimeoutException exc) {
+			return false;
+		}
+		complete(result);
+		return true;
+	}
+
+	// -- Helper methods --
+
+	private synchronized void complete(final T result) {
+		if (completed) return;
+		completed = true;
+		if (completion != null) completion.accept(result);
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * A flat primitive array holding the elements of a MATLAB array in their
+ * native type, in MATLAB's column-major order, along with its size.
+ * <p>
+ * Unlike {@link matlabcontrol.extensions.MatlabNumericArray}, which always
+ * holds {@code double}s, this keeps each element at its original width.
+ * Since Java has no unsigned primitives, unsigned MATLAB classes are stored
+ * in the signed primitive of the same width, along with an unsigned flag.
+ * </p>
+ */
+public class MATLABTypedArray {
+
+	private final Object data;
+
+	private final long[] dims;
+
+	private final boolean unsigned;
+
+	/**
+	 * Wraps the given primitive array, without copying it.
+	 *
+	 * @param data A {@code boolean[]}, {@code byte[]}, {@code short[]},
+	 *          {@code int[]}, {@code long[]}, {@code float[]} or {@code double[]}
+	 *          array.
+	 * @param dims The MATLAB size of the array.
+	 * @param unsigned Whether integer elements are to be read as unsigned.
+	 */
+	public MATLABTypedArray(final Object data, final long[] dims,
+		final boolean unsigned)
+	{
+		if (componentType(data) == null) {
+			throw new IllegalArgumentException("Unsupported array type: " + (data ==
+				null ? null : data.getClass().getName()));
+		}
+		long count = 1;
+		for (final long dim : dims) {
+			count *= dim;
+		}
+		if (count != Array.getLength(data)) {
+			throw new IllegalArgumentException("Array of length " + Array
+				.getLength(data) + " does not match size " + Arrays.toString(dims));
+		}
+		this.data = data;
+		this.dims = dims;
+		this.unsigned = unsigned;
+	}
+
+	/**
+	 * Allocates a new array of the given MATLAB class and size.
+	 *
+	 * @param matlabClass A MATLAB numeric class name, or {@code "logical"}.
+	 */
+	public static MATLABTypedArray allocate(final String matlabClass,
+		final long... dims)
+	{
+		long count = 1;
+		for (final long dim : dims) {
+			count *= dim;
+		}
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Array too large: " + Arrays.toString(
+				dims));
+		}
+		final Object data = Array.newInstance(elementType(matlabClass),
+			(int) count);
+		return new MATLABTypedArray(data, dims, matlabClass.startsWith("uint"));
+	}
+
+	/** Gets the backing primitive array. */
+	public Object getData() {
+		return data;
+	}
+
+	/** Gets the MATLAB size of the array. */
+	public long[] getDims() {
+		return dims;
+	}
+
+	/** Gets the number of elements. */
+	public int length() {
+		return Array.getLength(data);
+	}
+
+	/** Whether integer elements are to be read as unsigned. */
+	public boolean isUnsigned() {
+		return unsigned;
+	}
+
+	/**
+	 * Gets the name of the MATLAB class matching the element type, e.g.
+	 * {@code "uint16"} or {@code "single"}.
+	 */
+	public String getMATLABClass() {
+		final Class<?> type = componentType(data);
+		if (type == boolean.class) return "logical";
+		if (type == float.class) return "single";
+		if (type == double.class) return "double";
+		final String prefix = unsigned ? "uint" : "int";
+		if (type == byte.class) return prefix + "8";
+		if (type == short.class) return prefix + "16";
+		if (type == int.class) return prefix + "32";
+		return prefix + "64";
+	}
+
+	/**
+	 * Gets the primitive type storing elements of the given MATLAB class, e.g.
+	 * {@code short} for {@code uint16}.
+	 *
+	 * @param matlabClass A MATLAB numeric class name, or {@code "logical"}.
+	 */
+	public static Class<?> elementType(final String matlabClass) {
+		switch (matlabClass) {
+			case "logical":
+				return boolean.class;
+			case "int8":
+			case "uint8":
+				return byte.class;
+			case "int16":
+			case "uint16":
+				return short.class;
+			case "int32":
+			case "uint32":
+				return int.class;
+			case "int64":
+			case "uint64":
+				return long.class;
+			case "single":
+				return float.class;
+			case "double":
+				return double.class;
+			default:
+				throw new IllegalArgumentException("Unsupported MATLAB class: " +
+					matlabClass);
+		}
+	}
+
+	// -- Helper methods --
+
+	private static Class<?> componentType(final Object data) {
+		if (data == null) return null;
+		final Class<?> type = data.getClass().getComponentType();
+		if (type == boolean.class || type == byte.class || type == short.class ||
+			type == int.class || type == long.class || type == float.class ||
+			type == double.class) return type;
+		return null;
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.ScriptException;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.scijava.thread.ThreadService;
+
+/**
+ * Lazily loaded view of a MATLAB array as a {@link Dataset}, for arrays too
+ * large to convert up front.
+ * <p>
+ * The array is split into XY planes, which are fetched from MATLAB in their
+ * native class the first time they are accessed, and kept in a small bounded
+ * cache. Loading a plane also prefetches its neighbours in the background, so
+ * that stepping through the stack stays smooth.
+ * </p>
+ * <p>
+ * The view reads from a snapshot of the variable, taken when it is opened.
+ * Thanks to MATLAB's copy-on-write semantics the snapshot costs no memory
+ * unless the original variable is modified later. Snapshots are named with
+ * {@link #VIEW_PREFIX}.
+ * </p>
+ */
+class MATLABVirtualImg {
+
+	/** Prefix of the MATLAB variables holding the snapshots of lazy views. */
+	static final String VIEW_PREFIX = "ijm_view_";
+
+	/** Size in bytes above which arrays are better viewed lazily. */
+	static final long LAZY_BYTES = 256L * 1024 * 1024;
+
+	/** Number of planes kept in memory by each view. */
+	private static final int CACHED_PLANES = 16;
+
+	private static final AtomicInteger VIEW_COUNT = new AtomicInteger();
+
+	/** Marks the threads loading planes ahead, which do not prefetch further. */
+	private static final ThreadLocal<Boolean> PREFETCHING = ThreadLocal
+		.withInitial(() -> false);
+
+	private MATLABVirtualImg() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Whether an array of the given class and size is large enough to be
+	 * better viewed lazily.
+	 */
+	static boolean isLarge(final String matlabClass, final long[] dims) {
+		long bytes = bytesPerElement(matlabClass);
+		for (final long dim : dims) {
+			bytes *= dim;
+		}
+		return bytes > LAZY_BYTES;
+	}
+
+	/**
+	 * Opens a lazy view of the given MATLAB numeric array, of the given class
+	 * and size. The view is tracked by the {@link ImageJMATLABService}, which
+	 * clears its snapshot once it is released.
+	 */
+	static Dataset open(final MATLABWorkspace workspace,
+		final ThreadService threadService, final DatasetService datasetService,
+		final ImageJMATLABService ijmService, final String matrix,
+		final String matlabClass, final long[] dims) throws ScriptException
+	{
+		final String snapshot = VIEW_PREFIX + VIEW_COUNT.incrementAndGet();
+		workspace.eval(snapshot + " = " + matrix + ";");
+
+		final PlaneLoader loader = new PlaneLoader(workspace, threadService,
+			snapshot, dims);
+		final Dataset dataset = createTyped(datasetService, matrix, matlabClass,
+			loader);
+		ijmService.track(dataset, () -> {
+			try {
+				workspace.clear(snapshot);
+			}
+			catch (final ScriptException exc) {
+				// MATLAB is gone, and the snapshot with it
+			}
+		});
+		return dataset;
+	}
+
+	// -- Helper methods --
+
+	private static Dataset createTyped(final DatasetService datasetService,
+		final String matrix, final String matlabClass, final PlaneLoader loader)
+	{
+		switch (matlabClass) {
+			case "logical":
+			case "uint8":
+				return create(datasetService, matrix, new UnsignedByteType(), loader);
+			case "int8":
+				return create(datasetService, matrix, new ByteType(), loader);
+			case "uint16":
+				return create(datasetService, matrix, new UnsignedShortType(), loader);
+			case "int16":
+				return create(datasetService, matrix, new ShortType(), loader);
+			case "uint32":
+				return create(datasetService, matrix, new UnsignedIntType(), loader);
+			case "int32":
+				return create(datasetService, matrix, new IntType(), loader);
+			case "uint64":
+				return create(datasetService, matrix, new UnsignedLongType(), loader);
+			case "int64":
+				return create(datasetService, matrix, new LongType(), loader);
+			case "single":
+				return create(datasetService, matrix, new FloatType(), loader);
+			default:
+				return create(datasetService, matrix, new DoubleType(), loader);
+		}
+	}
+
+	private static <T extends NativeType<T> & RealType<T>> Dataset create(
+		final DatasetService datasetService, final String name, final T type,
+		final PlaneLoader loader)
+	{
+		final long[] dims = loader.dims;
+		final int[] cellDims = new int[dims.length];
+		for (int d = 0; d < dims.length; d++) {
+			cellDims[d] = d < 2 ? (int) dims[d] : 1;
+		}
+		final ReadOnlyCachedCellImgFactory factory =
+			new ReadOnlyCachedCellImgFactory(ReadOnlyCachedCellImgOptions.options()
+				.cellDimensions(cellDims).cacheType(CacheType.BOUNDED).maxCacheSize(
+					CACHED_PLANES));
+		final CachedCellImg<T, ?> img = factory.create(dims, type, loader
+			.typed());
+		loader.cells = img.getCells();
+		return datasetService.create(new ImgPlus<>(img, name, MATLABArrays.axes(
+			dims.length)));
+	}
+
+	private static int bytesPerElement(final String matlabClass) {
+		switch (matlabClass) {
+			case "logical":
+			case "int8":
+			case "uint8":
+				return 1;
+			case "int16":
+			case "uint16":
+				return 2;
+			case "int32":
+			case "uint32":
+			case "single":
+				return 4;
+			default:
+				return 8;
+		}
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * Loads planes of the snapshot into cells, and prefetches their
+	 * neighbours.
+	 */
+	private static class PlaneLoader {
+
+		private final MATLABWorkspace workspace;
+		private final ThreadService threadService;
+		private final String snapshot;
+		private final long[] dims;
+		private final long planes;
+
+		/** The cells of the image, accessed to trigger prefetching. */
+		private RandomAccessible<?> cells;
+
+		private PlaneLoader(final MATLABWorkspace workspace,
+			final ThreadService threadService, final String snapshot,
+			final long[] dims)
+		{
+			this.workspace = workspace;
+			this.threadService = threadService;
+			this.snapshot = snapshot;
+			this.dims = dims;
+			long count = 1;
+			for (int d = 2; d < dims.length; d++) {
+				count *= dims[d];
+			}
+			planes = count;
+		}
+
+		private <T extends NativeType<T>> CellLoader<T> typed() {
+			return this::load;
+		}
+
+		private void load(final SingleCellArrayImg<?, ?> cell)
+			throws ScriptException
+		{
+			// linear index of the plane, as used by MATLAB for trailing dimensions
+			long plane = 0;
+			for (int d = dims.length - 1; d >= 2; d--) {
+				plane = plane * dims[d] + cell.min(d);
+			}
+
+			final MATLABTypedArray data = workspace.getTyped(snapshot + "(:,:," +
+				(plane + 1) + ")");
+			final Object storage = cell.getStorageArray();
+			if (data.getData() instanceof boolean[]) {
+				final boolean[] values = (boolean[]) data.getData();
+				final byte[] bytes = (byte[]) storage;
+				for (int i = 0; i < values.length; i++) {
+					bytes[i] = values[i] ? (byte) 1 : 0;
+				}
+			}
+			else System.arraycopy(data.getData(), 0, storage, 0, data.length());
+
+			if (!PREFETCHING.get()) {
+				prefetch(plane + 1);
+				prefetch(plane - 1);
+			}
+		}
+
+		private void prefetch(final long plane) {
+			if (plane < 0 || plane >= planes) return;
+			threadService.run(() -> {
+				PREFETCHING.set(true);
+				try {
+					final RandomAccess<?> access = cells.randomAccess();
+					long remainder = plane;
+					for (int d = 2; d < dims.length; d++) {
+						access.setPosition(remainder % dims[d], d);
+						remainder /= dims[d];
+					}
+					// getting the cell loads it into the cache
+					access.get();
+				}
+				finally {
+					PREFETCHING.set(false);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,349 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import matlabcontrol.extensions.MatlabNumericArray;
+
+import org.scijava.plugins.scripting.matlab.MATLABService;
+import org.scijava.script.ScriptService;
+
+/**
+ * Helper for reading, writing and manipulating variables of the MATLAB
+ * workspace ImageJ is connected to.
+ */
+class MATLABWorkspace {
+
+	/** Prefix of the temporary variables used while transferring data. */
+	static final String TEMP_PREFIX = "ijm_tmp_";
+
+	private static final AtomicLong TEMP_COUNT = new AtomicLong();
+
+	private final ScriptService scriptService;
+
+	private final MATLABService matlabService;
+
+	private ScriptEngine engine;
+
+	/** Whether large payloads are compressed when worth it. */
+	private boolean compression = PayloadCompression.isExternal();
+
+	MATLABWorkspace(final ScriptService scriptService,
+		final MATLABService matlabService)
+	{
+		this.scriptService = scriptService;
+		this.matlabService = matlabService;
+	}
+
+	/**
+	 * Gets the value of the given MATLAB variable, or null if there is none.
+	 */
+	Object get(final String name) {
+		return engine().get(name);
+	}
+
+	/**
+	 * Assigns the given value to a MATLAB variable.
+	 */
+	void put(final String name, final Object value) {
+		matlabService.makeMATLABVariable(name, value);
+	}
+
+	/**
+	 * Assigns the given typed array to a MATLAB variable of the same class and
+	 * size. With compression enabled, large compressible arrays are sent
+	 * deflated, and inflated by MATLAB.
+	 */
+	void putTyped(final String name, final MATLABTypedArray array)
+		throws ScriptException
+	{
+		final PayloadCompression.Payload payload = compression
+			? PayloadCompression.compress(array.getData()) : null;
+		if (payload != null) {
+			putCompressed(name, array, payload);
+			return;
+		}
+
+		// Java arrays arrive in MATLAB as signed column vectors
+		put(name, array.getData());
+
+		final StringBuilder code = new StringBuilder();
+		code.append(name).append(" = reshape(");
+		if (array.isUnsigned()) {
+			code.append("typecast(").append(name).append(", '").append(array
+				.getMATLABClass()).append("')");
+		}
+		else code.append(name);
+		code.append(", ").append(size(array.getDims())).append(");");
+		eval(code.toString());
+	}
+
+	/**
+	 * Whether large payloads are compressed when worth it. Enabled by default
+	 * when talking to MATLAB over RMI, where it pays off most.
+	 */
+	boolean isCompression() {
+		return compression;
+	}
+
+	/**
+	 * Enables or disables compression of large payloads.
+	 */
+	void setCompression(final boolean compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Evaluates a MATLAB expression into a typed array of the same class and
+	 * size.
+	 */
+	MATLABTypedArray getTyped(final String expression) throws ScriptException {
+		final String tmp = temp("typed");
+		eval(tmp + " = " + expression + ";");
+		try {
+			final String matlabClass = classOf(tmp);
+			final long[] dims = size(tmp);
+
+			// Ship the elements as a vector of the matching signed Java type
+			final String wireClass = matlabClass.equals("logical") ? "int8"
+				: matlabClass.startsWith("uint") ? matlabClass.substring(1) : null;
+			if (wireClass == null) eval(tmp + " = " + tmp + "(:);");
+			else if (matlabClass.equals("logical")) {
+				eval(tmp + " = " + wireClass + "(" + tmp + "(:));");
+			}
+			else {
+				eval(tmp + " = typecast(" + tmp + "(:), '" + wireClass + "');");
+			}
+
+			// MATLAB hands over a new array: wrap it if it has the right type
+			final Object value = get(tmp);
+			final boolean unsigned = matlabClass.startsWith("uint");
+			if (value != null && value.getClass().getComponentType() ==
+				MATLABTypedArray.elementType(matlabClass))
+			{
+				return new MATLABTypedArray(value, dims, unsigned);
+			}
+
+			final MATLABTypedArray array = MATLABTypedArray.allocate(matlabClass,
+				dims);
+			copyInto(value, array.getData());
+			return array;
+		}
+		finally {
+			clear(tmp);
+		}
+	}
+
+	/**
+	 * Gets the MATLAB size of the given variable.
+	 */
+	long[] size(final String name) throws ScriptException {
+		final String tmp = temp("size");
+		eval(tmp + " = size(" + name + ");");
+		final Object value = get(tmp);
+		clear(tmp);
+
+		final double[] sizes = new double[value instanceof MatlabNumericArray
+			? ((MatlabNumericArray) value).getLength() : Array.getLength(value)];
+		copyInto(value, sizes);
+		final long[] dims = new long[sizes.length];
+		for (int d = 0; d < dims.length; d++) {
+			dims[d] = (long) sizes[d];
+		}
+		return dims;
+	}
+
+	/**
+	 * Checks, in a single evaluation, that the given variable exists with the
+	 * given size and MATLAB class.
+	 */
+	boolean matches(final String name, final long[] dims,
+		final String matlabClass) throws ScriptException
+	{
+		// MATLAB drops trailing singleton dimensions, beyond the first two
+		int n = dims.length;
+		while (n > 2 && dims[n - 1] == 1) {
+			n--;
+		}
+		final String tmp = temp("matches");
+		eval(tmp + " = double(exist('" + name + "', 'var') == 1 && isequal(size(" +
+			name + "), " + size(Arrays.copyOf(dims, n)) + ") && isa(" + name +
+			", '" + matlabClass + "'));");
+		final Object value = get(tmp);
+		clear(tmp);
+		if (value instanceof Number) return ((Number) value).doubleValue() != 0;
+		return value instanceof double[] && ((double[]) value).length > 0 &&
+			((double[]) value)[0] != 0;
+	}
+
+	/**
+	 * Gets the MATLAB class name of the given variable.
+	 */
+	String classOf(final String name) throws ScriptException {
+		final String tmp = temp("class");
+		eval(tmp + " = class(" + name + ");");
+		final Object value = get(tmp);
+		clear(tmp);
+		return value instanceof char[] ? new String((char[]) value) : String
+			.valueOf(value);
+	}
+
+	/**
+	 * Evaluates the given MATLAB code.
+	 */
+	void eval(final String code) throws ScriptException {
+		engine().eval(code);
+	}
+
+	/**
+	 * Removes the given variables from the MATLAB workspace.
+	 */
+	void clear(final String... names) throws ScriptException {
+		eval("clear " + String.join(" ", names) + ";");
+	}
+
+	/**
+	 * Gets a name for a temporary variable, unique even among operations
+	 * running at the same time, e.g. lazy loads from display threads.
+	 */
+	static String temp(final String suffix) {
+		return TEMP_PREFIX + suffix + "_" + TEMP_COUNT.incrementAndGet();
+	}
+
+	/**
+	 * Formats the given dimensions as a MATLAB size vector.
+	 */
+	static String size(final long[] dims) {
+		final StringBuilder sb = new StringBuilder("[");
+		for (final long dim : dims) {
+			if (sb.length() > 1) sb.append(" ");
+			sb.append(dim);
+		}
+		// MATLAB sizes have at least two elements
+		if (dims.length < 2) sb.append(dims.length == 0 ? "1 1" : " 1");
+		return sb.append("]").toString();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Assigns a compressed typed array, inflated, unshuffled and cast back to
+	 * its class by MATLAB.
+	 */
+	private void putCompressed(final String name, final MATLABTypedArray array,
+		final PayloadCompression.Payload payload) throws ScriptException
+	{
+		put(name, payload.bytes);
+
+		// MATLAB copies the arrays it passes to Java, so inflate by writing to
+		// a stream rather than into a buffer
+		final String out = temp("inflated");
+		final String inflater = temp("inflater");
+		final String matlabClass = array.getMATLABClass();
+		final StringBuilder code = new StringBuilder();
+		code.append(out).append(" = java.io.ByteArrayOutputStream(); ");
+		code.append(inflater).append(" = java.util.zip.InflaterOutputStream(")
+			.append(out).append("); ");
+		code.append(inflater).append(".write(").append(name).append("); ");
+		code.append(inflater).append(".close(); ");
+		code.append(name).append(" = typecast(").append(out).append(
+			".toByteArray(), 'uint8'); ");
+		if (payload.shuffle > 1) {
+			code.append(name).append(" = reshape(reshape(").append(name).append(
+				", [], ").append(payload.shuffle).append(").', [], 1); ");
+		}
+		code.append(name).append(" = reshape(");
+		if (matlabClass.equals("logical")) code.append(name).append(" ~= 0");
+		else {
+			code.append("typecast(").append(name).append(", '").append(matlabClass)
+				.append("')");
+		}
+		code.append(", ").append(size(array.getDims())).append("); ");
+		code.append("clear ").append(out).append(" ").append(inflater).append(
+			";");
+		eval(code.toString());
+	}
+
+	/**
+	 * Copies values received from MATLAB into the given primitive array,
+	 * whatever Java form MATLAB delivered them in.
+	 */
+	private static void copyInto(final Object value, final Object dest) {
+		final int n = Array.getLength(dest);
+		if (value != null && value.getClass() == dest.getClass()) {
+			System.arraycopy(value, 0, dest, 0, n);
+			return;
+		}
+		if (value instanceof byte[] && dest instanceof boolean[]) {
+			final byte[] bytes = (byte[]) value;
+			final boolean[] bools = (boolean[]) dest;
+			for (int i = 0; i < n; i++) {
+				bools[i] = bytes[i] != 0;
+			}
+			return;
+		}
+		for (int i = 0; i < n; i++) {
+			final double v;
+			if (value instanceof MatlabNumericArray) {
+				v = ((MatlabNumericArray) value).getRealValue(i);
+			}
+			else if (value instanceof Number) v = ((Number) value).doubleValue();
+			else v = ((Number) Array.get(value, i)).doubleValue();
+			setReal(dest, i, v);
+		}
+	}
+
+	/**
+	 * Sets an element of a primitive array, wrapping integers modulo their
+	 * width as MATLAB's {@code typecast} does.
+	 */
+	private static void setReal(final Object dest, final int i, final double v) {
+		if (dest instanceof double[]) ((double[]) dest)[i] = v;
+		else if (dest instanceof float[]) ((float[]) dest)[i] = (float) v;
+		else if (dest instanceof long[]) ((long[]) dest)[i] = (long) v;
+		else if (dest instanceof int[]) ((int[]) dest)[i] = (int) (long) v;
+		else if (dest instanceof short[]) ((short[]) dest)[i] = (short) (long) v;
+		else if (dest instanceof byte[]) ((byte[]) dest)[i] = (byte) (long) v;
+		else ((boolean[]) dest)[i] = v != 0;
+	}
+
+	private ScriptEngine engine() {
+		if (engine == null) {
+			engine = scriptService.getLanguageByName("MATLAB").getScriptEngine();
+		}
+		return engine;
+	}
+}
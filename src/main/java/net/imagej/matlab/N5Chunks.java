@@ -0,0 +1,430 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgFactory;
+import net.imglib2.cache.img.ReadOnlyCachedCellImgOptions;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Reads and writes images as N5 datasets: directories holding one file per
+ * block of a regular grid, which can be processed block by block on either
+ * side without ever loading the whole volume.
+ * <p>
+ * The dataset is stored at the root of the N5 container, so that the
+ * container directory is all a reader needs. Each block is written with the
+ * standard N5 header, in big-endian order, with X varying fastest, and either
+ * uncompressed ({@code raw}) or {@code gzip} compressed. Blocks at the border
+ * of the image are truncated to it. The {@code readN5Block} MATLAB template
+ * reads single blocks on the MATLAB side.
+ * </p>
+ */
+class N5Chunks {
+
+	/** Version of the N5 format written. */
+	static final String VERSION = "2.0.0";
+
+	/** Name of the attributes file of N5 containers and datasets. */
+	static final String ATTRIBUTES = "attributes.json";
+
+	private N5Chunks() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Writes an image as an N5 dataset, the blocks being written in parallel.
+	 *
+	 * @param dir The container directory, created if needed.
+	 * @param blockSize Size of the blocks, clipped to the image.
+	 * @param compression {@code "raw"} or {@code "gzip"}.
+	 */
+	static void write(final RandomAccessibleInterval<? extends RealType<?>> image,
+		final File dir, final long[] blockSize, final String compression,
+		final ExecutorService executor) throws IOException
+	{
+		final String dataType = dataType(MATLABArrays.matlabClass(Util
+			.getTypeFromInterval(image)));
+		final boolean gzip = isGzip(compression);
+		final RandomAccessibleInterval<? extends RealType<?>> source = Views
+			.zeroMin(image);
+		final long[] dims = Intervals.dimensionsAsLongArray(source);
+		final long[] blocks = new long[dims.length];
+		final int[] size = new int[dims.length];
+		long count = 1;
+		for (int d = 0; d < dims.length; d++) {
+			size[d] = (int) Math.max(1, Math.min(dims[d], d < blockSize.length
+				? blockSize[d] : 1));
+			blocks[d] = (dims[d] + size[d] - 1) / size[d];
+			count *= blocks[d];
+		}
+
+		Files.createDirectories(dir.toPath());
+		Files.write(new File(dir, ATTRIBUTES).toPath(), ("{\"n5\":\"" + VERSION +
+			"\",\"dimensions\":" + Arrays.toString(dims).replace(" ", "") +
+			",\"blockSize\":" + Arrays.toString(size).replace(" ", "") +
+			",\"dataType\":\"" + dataType + "\",\"compression\":{\"type\":\"" +
+			(gzip ? "gzip\",\"level\":-1" : "raw\"") + "}}").getBytes(
+				StandardCharsets.UTF_8));
+
+		// Split the blocks into one contiguous run per worker
+		final long total = count;
+		final int workers = (int) Math.max(1, Math.min(total, Runtime.getRuntime()
+			.availableProcessors()));
+		final List<Future<Void>> futures = new ArrayList<>(workers);
+		for (int w = 0; w < workers; w++) {
+			final long start = total * w / workers;
+			final long end = total * (w + 1) / workers;
+			futures.add(executor.submit(() -> {
+				final long[] position = new long[dims.length];
+				final long[] min = new long[dims.length];
+				final long[] max = new long[dims.length];
+				for (long b = start; b < end; b++) {
+					long remainder = b;
+					for (int d = 0; d < dims.length; d++) {
+						position[d] = remainder % blocks[d];
+						remainder /= blocks[d];
+						min[d] = position[d] * size[d];
+						max[d] = Math.min(dims[d], min[d] + size[d]) - 1;
+					}
+					final MATLABTypedArray block = MATLABArrays.toTypedArray(Views
+						.interval(source, new FinalInterval(min, max)));
+					writeBlock(blockFile(dir, position), block, gzip);
+				}
+				return null;
+			}));
+		}
+		await(futures);
+	}
+
+	/**
+	 * Opens the N5 dataset at the root of the given container as a cell
+	 * image, whose blocks are only read when accessed. Missing blocks read as
+	 * zeros.
+	 */
+	static CachedCellImg<? extends RealType<?>, ?> open(final File dir)
+		throws IOException
+	{
+		final String attributes = new String(Files.readAllBytes(new File(dir,
+			ATTRIBUTES).toPath()), StandardCharsets.UTF_8);
+		final long[] dims = longs(attribute(attributes, "dimensions"));
+		final long[] size = longs(attribute(attributes, "blockSize"));
+		final String dataType = string(attribute(attributes, "dataType"));
+		// N5 versions before 2.0 give a compressionType instead
+		final String compression = attributes.contains("\"compression\"")
+			? string(attribute(attribute(attributes, "compression"), "type"))
+			: string(attribute(attributes, "compressionType"));
+		final boolean gzip = isGzip(compression);
+
+		final int[] cellDims = new int[size.length];
+		for (int d = 0; d < size.length; d++) {
+			cellDims[d] = (int) size[d];
+		}
+		switch (dataType) {
+			case "uint8":
+				return create(dir, dims, cellDims, gzip, new UnsignedByteType());
+			case "int8":
+				return create(dir, dims, cellDims, gzip, new ByteType());
+			case "uint16":
+				return create(dir, dims, cellDims, gzip, new UnsignedShortType());
+			case "int16":
+				return create(dir, dims, cellDims, gzip, new ShortType());
+			case "uint32":
+				return create(dir, dims, cellDims, gzip, new UnsignedIntType());
+			case "int32":
+				return create(dir, dims, cellDims, gzip, new IntType());
+			case "uint64":
+				return create(dir, dims, cellDims, gzip, new UnsignedLongType());
+			case "int64":
+				return create(dir, dims, cellDims, gzip, new LongType());
+			case "float32":
+				return create(dir, dims, cellDims, gzip, new FloatType());
+			case "float64":
+				return create(dir, dims, cellDims, gzip, new DoubleType());
+			default:
+				throw new IOException("Unsupported N5 data type: " + dataType);
+		}
+	}
+
+	/**
+	 * Reads the block at the given grid position into the given primitive
+	 * array, laid out with the given block size. Blocks stored with a
+	 * different size, as some writers do at the border, are cropped or padded
+	 * with zeros to fit.
+	 *
+	 * @return false if there is no such block.
+	 */
+	static boolean readBlock(final File dir, final long[] position,
+		final boolean gzip, final Object dest, final int[] size)
+		throws IOException
+	{
+		final File file = blockFile(dir, position);
+		if (!file.isFile()) return false;
+
+		final ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file
+			.toPath()));
+		final short mode = bytes.getShort();
+		final int[] stored = new int[bytes.getShort()];
+		int count = 1;
+		for (int d = 0; d < stored.length; d++) {
+			stored[d] = bytes.getInt();
+			count *= stored[d];
+		}
+		// varlength blocks give their element count after the sizes
+		if (mode == 1) count = bytes.getInt();
+
+		byte[] data = Arrays.copyOfRange(bytes.array(), bytes.position(), bytes
+			.limit());
+		if (gzip) {
+			try (final InputStream in = new GZIPInputStream(
+				new ByteArrayInputStream(data)))
+			{
+				data = readAll(in);
+			}
+		}
+
+		if (Arrays.equals(stored, size)) {
+			SCIFIOArrayReader.decode(data, ByteOrder.BIG_ENDIAN, dest, 0, count);
+			return true;
+		}
+		final Object block = Array.newInstance(dest.getClass()
+			.getComponentType(), count);
+		SCIFIOArrayReader.decode(data, ByteOrder.BIG_ENDIAN, block, 0, count);
+		copyRuns(block, stored, dest, size);
+		return true;
+	}
+
+	// -- Helper methods --
+
+	private static <T extends NativeType<T> & RealType<T>>
+		CachedCellImg<T, ?> create(final File dir, final long[] dims,
+			final int[] cellDims, final boolean gzip, final T type)
+	{
+		final ReadOnlyCachedCellImgFactory factory =
+			new ReadOnlyCachedCellImgFactory(ReadOnlyCachedCellImgOptions.options()
+				.cellDimensions(cellDims));
+		final CellLoader<T> loader = cell -> load(dir, cellDims, gzip, cell);
+		return factory.create(dims, type, loader);
+	}
+
+	private static void load(final File dir, final int[] cellDims,
+		final boolean gzip, final SingleCellArrayImg<?, ?> cell)
+		throws IOException
+	{
+		final long[] position = new long[cellDims.length];
+		final int[] size = new int[cellDims.length];
+		for (int d = 0; d < cellDims.length; d++) {
+			position[d] = cell.min(d) / cellDims[d];
+			size[d] = (int) cell.dimension(d);
+		}
+		readBlock(dir, position, gzip, cell.getStorageArray(), size);
+	}
+
+	private static void writeBlock(final File file, final MATLABTypedArray block,
+		final boolean gzip) throws IOException
+	{
+		final long[] dims = block.getDims();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream header = new DataOutputStream(bytes);
+		header.writeShort(0);
+		header.writeShort(dims.length);
+		for (final long dim : dims) {
+			header.writeInt((int) dim);
+		}
+		final byte[] data = SCIFIOArrayWriter.encode(block.getData(),
+			ByteOrder.BIG_ENDIAN);
+		if (gzip) {
+			try (final OutputStream out = new GZIPOutputStream(bytes)) {
+				out.write(data);
+			}
+		}
+		else bytes.write(data);
+
+		Files.createDirectories(file.getParentFile().toPath());
+		Files.write(file.toPath(), bytes.toByteArray());
+	}
+
+	/** Gets the file of a block: one directory level per grid dimension. */
+	private static File blockFile(final File dir, final long[] position) {
+		File file = dir;
+		for (final long p : position) {
+			file = new File(file, Long.toString(p));
+		}
+		return file;
+	}
+
+	/**
+	 * Copies the overlap of two blocks of different sizes, both starting at
+	 * the origin, one run along X at a time.
+	 */
+	private static void copyRuns(final Object src, final int[] srcSize,
+		final Object dest, final int[] destSize)
+	{
+		final int n = destSize.length;
+		final int run = Math.min(srcSize[0], destSize[0]);
+		final int[] position = new int[n];
+		while (true) {
+			int srcIndex = 0, destIndex = 0;
+			for (int d = n - 1; d >= 0; d--) {
+				srcIndex = srcIndex * srcSize[d] + position[d];
+				destIndex = destIndex * destSize[d] + position[d];
+			}
+			System.arraycopy(src, srcIndex, dest, destIndex, run);
+
+			int d = 1;
+			while (d < n && ++position[d] >= Math.min(srcSize[d], destSize[d])) {
+				position[d++] = 0;
+			}
+			if (d >= n) return;
+		}
+	}
+
+	private static void await(final List<Future<Void>> futures)
+		throws IOException
+	{
+		try {
+			for (final Future<Void> future : futures) {
+				future.get();
+			}
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new IOException(exc);
+		}
+		catch (final ExecutionException exc) {
+			final Throwable cause = exc.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	/** Gets the N5 data type matching a MATLAB class. */
+	private static String dataType(final String matlabClass) {
+		switch (matlabClass) {
+			case "logical":
+				return "uint8";
+			case "single":
+				return "float32";
+			case "double":
+				return "float64";
+			default:
+				return matlabClass;
+		}
+	}
+
+	private static boolean isGzip(final String compression) throws IOException {
+		switch (compression) {
+			case "gzip":
+				return true;
+			case "raw":
+				return false;
+			default:
+				throw new IOException("Unsupported N5 compression: " + compression);
+		}
+	}
+
+	/**
+	 * Gets the raw JSON value of the given key of a flat JSON object, enough
+	 * for the attributes of N5 datasets.
+	 */
+	private static String attribute(final String json, final String key)
+		throws IOException
+	{
+		final Matcher matcher = Pattern.compile("\"" + key +
+			"\"\\s*:\\s*(\\[[^\\]]*\\]|\\{[^}]*\\}|\"[^\"]*\"|[^,}\\s]+)").matcher(
+				json);
+		if (!matcher.find()) throw new IOException("Missing N5 attribute: " + key);
+		return matcher.group(1);
+	}
+
+	private static String string(final String value) {
+		return value.replaceAll("^\"|\"$", "");
+	}
+
+	private static long[] longs(final String value) {
+		final String[] items = value.replaceAll("[\\[\\]\\s]", "").split(",");
+		final long[] values = new long[items.length];
+		for (int i = 0; i < items.length; i++) {
+			values[i] = Long.parseLong(items[i]);
+		}
+		return values;
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteOrder;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * Lossless compression of pixel payloads sent to MATLAB.
+ * <p>
+ * When ImageJ runs in its own JVM, every array sent to MATLAB is serialized
+ * through matlabcontrol's RMI connection, which is much slower than
+ * compressing it. Payloads are then encoded as little-endian bytes,
+ * optionally shuffled so that the same byte of every element is stored
+ * together, which makes smooth or narrow-ranged data far more compressible,
+ * and deflated at the fastest level. MATLAB inflates them with the
+ * {@link InflaterOutputStream} of its own JVM, which may not have this
+ * library on its class path, and unshuffles them itself.
+ * </p>
+ * <p>
+ * Whether a payload is worth compressing, and whether shuffling helps, is
+ * estimated by compressing a few samples of it first.
+ * </p>
+ */
+class PayloadCompression {
+
+	/** Payloads smaller than this are always sent raw. */
+	static final int MIN_BYTES = 256 * 1024;
+
+	/** Compressed to raw size ratio above which payloads are sent raw. */
+	static final double MAX_RATIO = 0.8;
+
+	private static final int SAMPLES = 4;
+
+	private static final int SAMPLE_BYTES = 64 * 1024;
+
+	private PayloadCompression() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Whether MATLAB is reached through RMI from another JVM, rather than
+	 * running this code in its own JVM.
+	 */
+	static boolean isExternal() {
+		try {
+			Class.forName("com.mathworks.jmi.Matlab");
+			return false;
+		}
+		catch (final ClassNotFoundException | LinkageError exc) {
+			return true;
+		}
+	}
+
+	/**
+	 * Compresses the given primitive array, if it is estimated to be worth
+	 * it.
+	 *
+	 * @return The compressed payload, or null to send the array raw.
+	 */
+	static Payload compress(final Object data) {
+		final int size = elementSize(data);
+		final int elements = Array.getLength(data);
+		if ((long) elements * size < MIN_BYTES) return null;
+
+		// Compress evenly spaced samples, with and without shuffling
+		final int sampleElements = SAMPLE_BYTES / size;
+		long plain = 0, shuffled = 0, raw = 0;
+		for (int s = 0; s < SAMPLES; s++) {
+			final int offset = (int) ((long) (elements - sampleElements) * s / Math
+				.max(1, SAMPLES - 1));
+			final byte[] sample = SCIFIOArrayWriter.encode(data, offset, Math.min(
+				sampleElements, elements - offset), ByteOrder.LITTLE_ENDIAN);
+			plain += deflate(sample, 0, sample.length).length;
+			if (size > 1) {
+				shuffled += deflate(shuffle(sample, 0, sample.length, size), 0,
+					sample.length).length;
+			}
+			raw += sample.length;
+		}
+
+		final boolean shuffle = size > 1 && shuffled < plain;
+		if ((double) (shuffle ? shuffled : plain) / raw > MAX_RATIO) return null;
+		final byte[] bytes = SCIFIOArrayWriter.encode(data,
+			ByteOrder.LITTLE_ENDIAN);
+		final byte[] payload = shuffle ? shuffle(bytes, 0, bytes.length, size)
+			: bytes;
+		return new Payload(deflate(payload, 0, payload.length), shuffle ? size
+			: 1);
+	}
+
+	/**
+	 * Inflates and unshuffles a payload back to its little-endian bytes, as the
+	 * MATLAB code assigning it does.
+	 */
+	static byte[] inflate(final Payload payload) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(4 *
+			payload.bytes.length);
+		try (final InflaterOutputStream inflater = new InflaterOutputStream(out)) {
+			inflater.write(payload.bytes);
+		}
+		catch (final IOException exc) {
+			throw new IllegalArgumentException("Corrupt payload", exc);
+		}
+		final byte[] bytes = out.toByteArray();
+		return payload.shuffle > 1 ? unshuffle(bytes, payload.shuffle) : bytes;
+	}
+
+	// -- Helper methods --
+
+	private static int elementSize(final Object data) {
+		if (data instanceof short[]) return 2;
+		if (data instanceof int[] || data instanceof float[]) return 4;
+		if (data instanceof long[] || data instanceof double[]) return 8;
+		return 1;
+	}
+
+	/**
+	 * Groups the bytes of elements of the given size by significance: the
+	 * first byte of every element, then the second one, and so on.
+	 */
+	private static byte[] shuffle(final byte[] bytes, final int offset,
+		final int length, final int size)
+	{
+		final int n = length / size;
+		final byte[] shuffled = new byte[length];
+		for (int i = 0; i < n; i++) {
+			final int base = offset + i * size;
+			for (int b = 0; b < size; b++) {
+				shuffled[b * n + i] = bytes[base + b];
+			}
+		}
+		return shuffled;
+	}
+
+	/** Reverts {@link #shuffle} of a whole array. */
+	private static byte[] unshuffle(final byte[] bytes, final int size) {
+		final int n = bytes.length / size;
+		final byte[] unshuffled = new byte[bytes.length];
+		for (int i = 0; i < n; i++) {
+			for (int b = 0; b < size; b++) {
+				unshuffled[i * size + b] = bytes[b * n + i];
+			}
+		}
+		return unshuffled;
+	}
+
+	private static byte[] deflate(final byte[] bytes, final int offset,
+		final int length)
+	{
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(bytes, offset, length);
+			deflater.finish();
+			final ByteArrayOutputStream out = new ByteArrayOutputStream(length / 4);
+			final byte[] buffer = new byte[64 * 1024];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	// -- Helper classes --
+
+	/** Deflated bytes of an array, along with how they were shuffled. */
+	static class Payload {
+
+		/** The zlib compressed bytes. */
+		final byte[] bytes;
+
+		/** Size of the shuffled elements, 1 if the bytes were not shuffled. */
+		final int shuffle;
+
+		private Payload(final byte[] bytes, final int shuffle) {
+			this.bytes = bytes;
+			this.shuffle = shuffle;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import matlabcontrol.extensions.MatlabNumericArray;
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.axis.CalibratedAxis;
+import net.imglib2.Cursor;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.Fraction;
+import net.imglib2.view.Views;
+
+/**
+ * Growable planar storage backing a {@link Dataset} which is extended one
+ * MATLAB array at a time along its last axis.
+ * <p>
+ * Appended planes are kept in a list of {@link DoubleArray}s. Each append
+ * only copies the new planes, then rewraps the whole list as a new
+ * {@link PlanarImg}, so previously appended data is never reallocated or
+ * copied again.
+ * </p>
+ */
+class PlaneAppender {
+
+	private final List<DoubleArray> planes = new ArrayList<>();
+
+	/** Current dimensions; the last one grows with each append. */
+	private final long[] dims;
+
+	private final int planeSize;
+
+	/** Number of planes making up one step along the last axis. */
+	private final long slicePlanes;
+
+	private PlaneAppender(final long[] dims) {
+		this.dims = dims;
+		planeSize = (int) (dims[0] * dims[1]);
+		long count = 1;
+		for (int d = 2; d < dims.length - 1; d++) {
+			count *= dims[d];
+		}
+		slicePlanes = count;
+	}
+
+	/**
+	 * Creates an empty appender for arrays of the given MATLAB size, stacked
+	 * along an extra last axis.
+	 */
+	static PlaneAppender create(final int[] lengths) {
+		final long[] dims = new long[Math.max(lengths.length, 2) + 1];
+		for (int d = 0; d < dims.length - 1; d++) {
+			dims[d] = d < lengths.length ? lengths[d] : 1;
+		}
+		return new PlaneAppender(dims);
+	}
+
+	/**
+	 * Creates the appender for an existing {@link Dataset}, copying its current
+	 * content once into growable storage.
+	 *
+	 * @return The appender, or null if the {@link Dataset} is not of
+	 *         {@link DoubleType}: appending would silently change its type.
+	 */
+	static PlaneAppender wrap(final Dataset dataset) {
+		if (!(dataset.firstElement() instanceof DoubleType)) return null;
+
+		final long[] dims = new long[dataset.numDimensions()];
+		dataset.dimensions(dims);
+		final PlaneAppender appender = new PlaneAppender(dims);
+
+		final Cursor<RealType<?>> cursor = Views.flatIterable(dataset).cursor();
+		while (cursor.hasNext()) {
+			final double[] plane = new double[appender.planeSize];
+			for (int i = 0; i < plane.length; i++) {
+				plane[i] = cursor.next().getRealDouble();
+			}
+			appender.planes.add(new DoubleArray(plane));
+		}
+		return appender;
+	}
+
+	/**
+	 * Creates a new {@link Dataset} over the current content of this appender,
+	 * with X and Y as first axes, the given type as last axis, and MATLAB pages
+	 * in between.
+	 */
+	Dataset createDataset(final DatasetService datasetService,
+		final String name, final AxisType axis)
+	{
+		final AxisType[] axes = new AxisType[dims.length];
+		for (int d = 0; d < axes.length; d++) {
+			if (d == 0) axes[d] = Axes.X;
+			else if (d == 1) axes[d] = Axes.Y;
+			else if (d == axes.length - 1) axes[d] = axis;
+			else axes[d] = Axes.get("Page " + (d - 2), false);
+		}
+		return datasetService.create(new ImgPlus<>(img(), name, axes));
+	}
+
+	/**
+	 * Checks whether arrays of the given MATLAB size can be appended.
+	 */
+	boolean accepts(final int[] lengths) {
+		for (int d = 0; d < dims.length - 1; d++) {
+			final long length = d < lengths.length ? lengths[d] : 1;
+			if (length != dims[d]) return false;
+		}
+		// Several steps may be appended at once, but only along the last axis
+		for (int d = dims.length; d < lengths.length; d++) {
+			if (lengths[d] != 1) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Appends the given array along the last axis. Only the new planes are
+	 * copied.
+	 *
+	 * @return The length of the last axis after appending.
+	 */
+	long append(final MatlabNumericArray array) {
+		final int count = array.getLength() / planeSize;
+		for (int p = 0; p < count; p++) {
+			final double[] plane = new double[planeSize];
+			final int offset = p * planeSize;
+			for (int i = 0; i < plane.length; i++) {
+				plane[i] = array.getRealValue(offset + i);
+			}
+			planes.add(new DoubleArray(plane));
+		}
+
+		dims[dims.length - 1] = planes.size() / slicePlanes;
+		return dims[dims.length - 1];
+	}
+
+	/**
+	 * Points the given {@link Dataset} at the current content of this
+	 * appender, keeping its name and axes.
+	 * <p>
+	 * This restructures the {@link Dataset} rather than merely updating it:
+	 * ImgLib2 images have fixed dimensions, so a longer last axis takes a new
+	 * image, and displays only recompute their axis extents when notified of
+	 * a restructure. The new image shares the existing planes, so the cost of
+	 * each append still does not grow with the data already appended.
+	 * </p>
+	 */
+	void update(final Dataset dataset) {
+		final CalibratedAxis[] axes = new CalibratedAxis[dims.length];
+		for (int d = 0; d < axes.length; d++) {
+			axes[d] = dataset.axis(d).copy();
+		}
+		dataset.setImgPlus(new ImgPlus<>(img(), dataset.getName(), axes));
+	}
+
+	// -- Helper methods --
+
+	/** Wraps the current list of planes, without copying them. */
+	private PlanarImg<DoubleType, DoubleArray> img() {
+		final PlanarImg<DoubleType, DoubleArray> img =
+			new PlanarImg<>(planes, dims.clone(), new Fraction());
+		img.setLinkedType(new DoubleType(img));
+		return img;
+	}
+}
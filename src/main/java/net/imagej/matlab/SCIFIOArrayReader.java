@@ -0,0 +1,223 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import io.scif.FormatException;
+import io.scif.ImageMetadata;
+import io.scif.Plane;
+import io.scif.Reader;
+import io.scif.services.InitializeService;
+import io.scif.util.FormatTools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.scijava.io.location.FileLocation;
+
+/**
+ * Reads image files with SCIFIO directly into a {@link MATLABTypedArray},
+ * keeping the native pixel type and without building a {@link
+ * net.imagej.Dataset} first.
+ * <p>
+ * Planes are decoded straight into their slot of the destination array: the
+ * planar axes of the file come first, followed by the non-planar ones, which
+ * is MATLAB's column-major order. Planes are read in parallel, each worker
+ * thread using its own SCIFIO {@link Reader}.
+ * </p>
+ */
+class SCIFIOArrayReader {
+
+	private final InitializeService initializeService;
+
+	private final ExecutorService executor;
+
+	SCIFIOArrayReader(final InitializeService initializeService,
+		final ExecutorService executor)
+	{
+		this.initializeService = initializeService;
+		this.executor = executor;
+	}
+
+	/**
+	 * Reads planes of the given image of a file.
+	 *
+	 * @param path The file to read.
+	 * @param imageIndex 0-based index of the image (series) within the file.
+	 * @param planes 0-based indices of the planes to read, or null to read all
+	 *          of them. When given, all non-planar axes are flattened into a
+	 *          single last dimension of the result.
+	 */
+	MATLABTypedArray read(final String path, final int imageIndex,
+		final long[] planes) throws IOException, FormatException
+	{
+		final ImageMetadata meta;
+		final Reader metaReader = open(path);
+		try {
+			if (imageIndex < 0 || imageIndex >= metaReader.getImageCount()) {
+				throw new FormatException("No image " + imageIndex + " in " + path);
+			}
+			meta = metaReader.getMetadata().get(imageIndex);
+		}
+		finally {
+			metaReader.close();
+		}
+
+		final long[] indices = planes == null ? range(meta.getPlaneCount())
+			: planes;
+		final long[] planar = meta.getAxesLengthsPlanar();
+		final long[] nonPlanar = planes == null ? meta.getAxesLengthsNonPlanar()
+			: new long[] { planes.length };
+		final long[] dims = new long[Math.max(2, planar.length + nonPlanar.length)];
+		System.arraycopy(planar, 0, dims, 0, planar.length);
+		System.arraycopy(nonPlanar, 0, dims, planar.length, nonPlanar.length);
+		for (int d = planar.length + nonPlanar.length; d < dims.length; d++) {
+			dims[d] = 1;
+		}
+
+		final MATLABTypedArray array = MATLABTypedArray.allocate(matlabClass(meta
+			.getPixelType()), dims);
+		final int planeSize = (int) (array.length() / Math.max(1, indices.length));
+		final ByteOrder order = meta.isLittleEndian() ? ByteOrder.LITTLE_ENDIAN
+			: ByteOrder.BIG_ENDIAN;
+
+		// Split the planes into one contiguous run per worker
+		final int workers = Math.max(1, Math.min(indices.length, Runtime
+			.getRuntime().availableProcessors()));
+		final List<Future<Void>> futures = new ArrayList<>(workers);
+		for (int w = 0; w < workers; w++) {
+			final int start = (int) ((long) indices.length * w / workers);
+			final int end = (int) ((long) indices.length * (w + 1) / workers);
+			futures.add(executor.submit(() -> {
+				final Reader reader = open(path);
+				try {
+					Plane plane = null;
+					for (int p = start; p < end; p++) {
+						plane = plane == null ? reader.openPlane(imageIndex, indices[p])
+							: reader.openPlane(imageIndex, indices[p], plane);
+						decode(plane.getBytes(), order, array.getData(), p * planeSize,
+							planeSize);
+					}
+				}
+				finally {
+					reader.close();
+				}
+				return null;
+			}));
+		}
+
+		try {
+			for (final Future<Void> future : futures) {
+				future.get();
+			}
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new IOException(exc);
+		}
+		catch (final ExecutionException exc) {
+			final Throwable cause = exc.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof FormatException) throw (FormatException) cause;
+			throw new IOException(cause);
+		}
+		return array;
+	}
+
+	// -- Helper methods --
+
+	private Reader open(final String path) throws IOException,
+		FormatException
+	{
+		return initializeService.initializeReader(new FileLocation(path));
+	}
+
+	/**
+	 * Gets the MATLAB class matching a SCIFIO pixel type.
+	 */
+	static String matlabClass(final int pixelType) throws FormatException {
+		switch (pixelType) {
+			case FormatTools.INT8:
+				return "int8";
+			case FormatTools.UINT8:
+				return "uint8";
+			case FormatTools.INT16:
+				return "int16";
+			case FormatTools.UINT16:
+				return "uint16";
+			case FormatTools.INT32:
+				return "int32";
+			case FormatTools.UINT32:
+				return "uint32";
+			case FormatTools.FLOAT:
+				return "single";
+			case FormatTools.DOUBLE:
+				return "double";
+			default:
+				throw new FormatException("Unsupported pixel type: " + FormatTools
+					.getPixelTypeString(pixelType));
+		}
+	}
+
+	/**
+	 * Decodes raw plane bytes into the given primitive array.
+	 */
+	static void decode(final byte[] bytes, final ByteOrder order,
+		final Object dest, final int offset, final int length)
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+		if (dest instanceof byte[]) buffer.get((byte[]) dest, offset, length);
+		else if (dest instanceof short[]) buffer.asShortBuffer().get(
+			(short[]) dest, offset, length);
+		else if (dest instanceof int[]) buffer.asIntBuffer().get((int[]) dest,
+			offset, length);
+		else if (dest instanceof long[]) buffer.asLongBuffer().get((long[]) dest,
+			offset, length);
+		else if (dest instanceof float[]) buffer.asFloatBuffer().get(
+			(float[]) dest, offset, length);
+		else if (dest instanceof double[]) buffer.asDoubleBuffer().get(
+			(double[]) dest, offset, length);
+		else throw new IllegalArgumentException("Unsupported array type: " + dest
+			.getClass().getName());
+	}
+
+	private static long[] range(final long count) {
+		final long[] indices = new long[(int) count];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = i;
+		}
+		return indices;
+	}
+}
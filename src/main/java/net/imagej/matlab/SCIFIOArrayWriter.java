@@ -0,0 +1,249 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import io.scif.ByteArrayPlane;
+import io.scif.Format;
+import io.scif.FormatException;
+import io.scif.ImageMetadata;
+import io.scif.Metadata;
+import io.scif.Writer;
+import io.scif.services.FormatService;
+import io.scif.util.FormatTools;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.axis.CalibratedAxis;
+import net.imagej.axis.DefaultLinearAxis;
+
+import org.scijava.Context;
+import org.scijava.io.location.FileLocation;
+
+/**
+ * Writes an image file with SCIFIO one XY plane at a time, in the native
+ * pixel type of the MATLAB data, without building a complete image in
+ * memory.
+ */
+class SCIFIOArrayWriter {
+
+	private final Context context;
+
+	private final Writer writer;
+
+	private final ImageMetadata imageMeta;
+
+	private final boolean transpose;
+
+	private final long[] planeOffsets = new long[2];
+
+	private final long[] planeBounds;
+
+	/**
+	 * Opens a writer for an image of the given MATLAB class and size.
+	 *
+	 * @param dimOrder One letter per MATLAB dimension among {@code XYZCT}, e.g.
+	 *          {@code "YXZ"}. The first two letters must be X and Y, in either
+	 *          order; planes are transposed on the fly when Y comes first.
+	 */
+	SCIFIOArrayWriter(final Context context, final FormatService formatService,
+		final String path, final String matlabClass, final long[] dims,
+		final String dimOrder) throws IOException, FormatException
+	{
+		this.context = context;
+		final String order = dimOrder.toUpperCase();
+		if (order.length() < dims.length || order.length() < 2 || !order
+			.substring(0, 2).matches("XY|YX"))
+		{
+			throw new FormatException("Invalid dimension order " + dimOrder +
+				" for " + dims.length + " dimensions");
+		}
+		transpose = order.charAt(0) == 'Y';
+
+		// SCIFIO planes are always stored with X varying fastest
+		final CalibratedAxis[] axes = new CalibratedAxis[dims.length];
+		final long[] lengths = new long[dims.length];
+		for (int d = 0; d < dims.length; d++) {
+			final int src = d < 2 && transpose ? 1 - d : d;
+			axes[d] = new DefaultLinearAxis(axisType(order.charAt(src)));
+			lengths[d] = dims[src];
+		}
+		planeBounds = new long[] { lengths[0], lengths[1] };
+
+		final FileLocation location = new FileLocation(path);
+		final Format format = formatService.getOutputFormat(location);
+		final Metadata meta = format.createMetadata();
+		meta.createImageMetadata(1);
+		imageMeta = meta.get(0);
+		imageMeta.setName(location.getName());
+		imageMeta.setAxes(axes);
+		imageMeta.setAxisLengths(lengths);
+		imageMeta.setPlanarAxisCount(2);
+		final int pixelType = pixelType(matlabClass);
+		imageMeta.setPixelType(pixelType);
+		imageMeta.setBitsPerPixel(FormatTools.getBitsPerPixel(pixelType));
+		imageMeta.setLittleEndian(false);
+		imageMeta.setOrderCertain(true);
+		imageMeta.setMetadataComplete(true);
+
+		writer = format.createWriter();
+		writer.setMetadata(meta);
+		writer.setDest(location);
+	}
+
+	/**
+	 * Writes the XY plane with the given linear index, as held in MATLAB.
+	 */
+	void write(final long planeIndex, final MATLABTypedArray plane)
+		throws IOException, FormatException
+	{
+		Object data = plane.getData();
+		if (transpose) {
+			data = MATLABArrays.transpose(data, (int) planeBounds[1],
+				(int) planeBounds[0]);
+		}
+		final ByteArrayPlane bytes = new ByteArrayPlane(context,
+			imageMeta, planeOffsets, planeBounds);
+		bytes.setData(encode(data, ByteOrder.BIG_ENDIAN));
+		writer.savePlane(0, planeIndex, bytes);
+	}
+
+	/**
+	 * Finishes writing the file.
+	 */
+	void close() throws IOException {
+		writer.close();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the SCIFIO pixel type matching a MATLAB class.
+	 */
+	static int pixelType(final String matlabClass) throws FormatException {
+		switch (matlabClass) {
+			case "int8":
+				return FormatTools.INT8;
+			case "uint8":
+			case "logical":
+				return FormatTools.UINT8;
+			case "int16":
+				return FormatTools.INT16;
+			case "uint16":
+				return FormatTools.UINT16;
+			case "int32":
+				return FormatTools.INT32;
+			case "uint32":
+				return FormatTools.UINT32;
+			case "single":
+				return FormatTools.FLOAT;
+			case "double":
+				return FormatTools.DOUBLE;
+			default:
+				throw new FormatException("Unsupported MATLAB class: " + matlabClass);
+		}
+	}
+
+	private static AxisType axisType(final char letter) throws FormatException {
+		switch (letter) {
+			case 'X':
+				return Axes.X;
+			case 'Y':
+				return Axes.Y;
+			case 'Z':
+				return Axes.Z;
+			case 'C':
+				return Axes.CHANNEL;
+			case 'T':
+				return Axes.TIME;
+			default:
+				throw new FormatException("Unknown axis: " + letter);
+		}
+	}
+
+	/**
+	 * Encodes a primitive array as raw bytes.
+	 */
+	static byte[] encode(final Object src, final ByteOrder order) {
+		return encode(src, 0, Array.getLength(src), order);
+	}
+
+	/**
+	 * Encodes a range of a primitive array as raw bytes.
+	 */
+	static byte[] encode(final Object src, final int offset, final int length,
+		final ByteOrder order)
+	{
+		if (src instanceof byte[]) {
+			final byte[] values = (byte[]) src;
+			return offset == 0 && length == values.length ? values : Arrays
+				.copyOfRange(values, offset, offset + length);
+		}
+		if (src instanceof boolean[]) {
+			final boolean[] values = (boolean[]) src;
+			final byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++) {
+				bytes[i] = values[offset + i] ? (byte) 1 : 0;
+			}
+			return bytes;
+		}
+		final ByteBuffer buffer;
+		if (src instanceof short[]) {
+			buffer = ByteBuffer.allocate(2 * length).order(order);
+			buffer.asShortBuffer().put((short[]) src, offset, length);
+		}
+		else if (src instanceof int[]) {
+			buffer = ByteBuffer.allocate(4 * length).order(order);
+			buffer.asIntBuffer().put((int[]) src, offset, length);
+		}
+		else if (src instanceof long[]) {
+			buffer = ByteBuffer.allocate(8 * length).order(order);
+			buffer.asLongBuffer().put((long[]) src, offset, length);
+		}
+		else if (src instanceof float[]) {
+			buffer = ByteBuffer.allocate(4 * length).order(order);
+			buffer.asFloatBuffer().put((float[]) src, offset, length);
+		}
+		else if (src instanceof double[]) {
+			buffer = ByteBuffer.allocate(8 * length).order(order);
+			buffer.asDoubleBuffer().put((double[]) src, offset, length);
+		}
+		else {
+			throw new IllegalArgumentException("Unsupported array type: " + src
+				.getClass().getName());
+		}
+		return buffer.array();
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Multi-resolution pyramid over a large 2D image, giving fast access to
+ * tiles at any zoom level.
+ * <p>
+ * Level 0 is the image itself; each further level halves both dimensions,
+ * each pixel being the mean of the (up to) four pixels below it. The pyramid
+ * is built lazily, one {@link #TILE} square tile at a time: a tile is only
+ * computed when requested, from the four tiles below it, which are computed
+ * in turn if needed. Tiles are kept in a memory cache evicting the least
+ * recently used ones, and optionally in a disk cache, so that each tile is
+ * read or computed at most once as long as it stays cached.
+ * </p>
+ * <p>
+ * The image is only weakly referenced, so that a pyramid kept alongside it
+ * does not keep it alive, and the tiles cached on disk are deleted by
+ * {@link #dispose()}.
+ * </p>
+ */
+class TilePyramid {
+
+	/** Edge length of the tiles, in pixels. */
+	static final int TILE = 256;
+
+	/** Default memory budget of the tile cache, in bytes. */
+	static final long CACHE_BYTES = 64L * 1024 * 1024;
+
+	private final
+		WeakReference<RandomAccessibleInterval<? extends RealType<?>>> image;
+
+	/** Width and height of each level. */
+	private final List<long[]> levels = new ArrayList<>();
+
+	private final Map<String, double[]> cache = new LinkedHashMap<>(16, 0.75f,
+		true);
+
+	private final long cacheBytes;
+
+	private File diskCache;
+
+	private long cachedBytes;
+
+	/**
+	 * @param image The image at full resolution. Of images with more than two
+	 *          dimensions, the first plane is used.
+	 * @param cacheBytes Memory budget of the tile cache.
+	 * @param diskCache Directory in which to also cache tiles, or null.
+	 */
+	TilePyramid(final RandomAccessibleInterval<? extends RealType<?>> image,
+		final long cacheBytes, final File diskCache)
+	{
+		if (image.numDimensions() < 2) {
+			throw new IllegalArgumentException("Tile pyramids need a 2D image, not " +
+				image.numDimensions() + "D");
+		}
+		this.image = new WeakReference<>(image);
+		this.cacheBytes = cacheBytes;
+		this.diskCache = diskCache;
+
+		long w = image.dimension(0), h = image.dimension(1);
+		levels.add(new long[] { w, h });
+		while (w > TILE || h > TILE) {
+			w = (w + 1) / 2;
+			h = (h + 1) / 2;
+			levels.add(new long[] { w, h });
+		}
+	}
+
+	/** Gets the number of levels, the last one fitting in a single tile. */
+	int levelCount() {
+		return levels.size();
+	}
+
+	/** Gets the width and height of the given level. */
+	long[] dimensions(final int level) {
+		return levels.get(level).clone();
+	}
+
+	/**
+	 * Gets a region of the given level, clipped to its bounds, with X as first
+	 * index as for any image transferred to MATLAB.
+	 *
+	 * @param level 0 for full resolution, each further level halving it.
+	 * @param x 0-based position of the region at the given level.
+	 * @param y 0-based position of the region at the given level.
+	 */
+	synchronized double[][] region(final int level, final long x, final long y,
+		final int w, final int h) throws IOException
+	{
+		if (level < 0 || level >= levels.size()) {
+			throw new IllegalArgumentException("No level " + level + " in " +
+				levels.size() + " levels");
+		}
+		final long[] dims = levels.get(level);
+		final long x0 = Math.max(0, x), y0 = Math.max(0, y);
+		final long x1 = Math.min(dims[0], x + w), y1 = Math.min(dims[1], y + h);
+		final double[][] region = new double[(int) Math.max(0, x1 - x0)][(int) Math
+			.max(0, y1 - y0)];
+
+		for (long ty = y0 / TILE; ty * TILE < y1; ty++) {
+			for (long tx = x0 / TILE; tx * TILE < x1; tx++) {
+				final double[] tile = tile(level, tx, ty);
+				final int tw = tileWidth(level, tx);
+				final long fromX = Math.max(x0, tx * TILE), toX = Math.min(x1, (tx +
+					1) * TILE);
+				final long fromY = Math.max(y0, ty * TILE), toY = Math.min(y1, (ty +
+					1) * TILE);
+				for (long py = fromY; py < toY; py++) {
+					final int row = (int) (py - ty * TILE) * tw;
+					for (long px = fromX; px < toX; px++) {
+						region[(int) (px - x0)][(int) (py - y0)] = tile[row + (int) (px -
+							tx * TILE)];
+					}
+				}
+			}
+		}
+		return region;
+	}
+
+	/**
+	 * Empties the memory cache, and deletes the disk cache directory along with
+	 * the tiles in it. Tiles read afterwards are no longer cached on disk.
+	 */
+	synchronized void dispose() {
+		cache.clear();
+		cachedBytes = 0;
+		if (diskCache == null) return;
+		final File[] files = diskCache.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+		diskCache.delete();
+		diskCache = null;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets a tile, from the memory cache, the disk cache, or by computing it.
+	 * Tiles are stored X first.
+	 */
+	private double[] tile(final int level, final long tx, final long ty)
+		throws IOException
+	{
+		final String key = level + "_" + tx + "_" + ty;
+		double[] tile = cache.get(key);
+		if (tile != null) return tile;
+
+		final File file = diskCache == null ? null : new File(diskCache, key +
+			".raw");
+		if (file != null && file.isFile()) tile = read(file);
+		else {
+			tile = level == 0 ? readImage(tx, ty) : downsample(level, tx, ty);
+			if (file != null) write(file, tile);
+		}
+
+		cache.put(key, tile);
+		cachedBytes += 8L * tile.length;
+		final Iterator<double[]> eldest = cache.values().iterator();
+		while (cachedBytes > cacheBytes && cache.size() > 1) {
+			cachedBytes -= 8L * eldest.next().length;
+			eldest.remove();
+		}
+		return tile;
+	}
+
+	/** Reads a tile of the full resolution image. */
+	private double[] readImage(final long tx, final long ty) {
+		final int tw = tileWidth(0, tx), th = tileHeight(0, ty);
+		final long x = tx * TILE, y = ty * TILE;
+		final double[] tile = new double[tw * th];
+		final Cursor<? extends RealType<?>> cursor = Views.flatIterable(Views
+			.interval(plane(), new FinalInterval(new long[] { x, y }, new long[] { x +
+				tw - 1, y + th - 1 }))).cursor();
+		for (int i = 0; i < tile.length; i++) {
+			tile[i] = cursor.next().getRealDouble();
+		}
+		return tile;
+	}
+
+	/** Computes a tile as the 2x2 mean of the four tiles below it. */
+	private double[] downsample(final int level, final long tx, final long ty)
+		throws IOException
+	{
+		final int tw = tileWidth(level, tx), th = tileHeight(level, ty);
+		final double[] sums = new double[tw * th];
+		final int[] counts = new int[sums.length];
+		final long[] below = levels.get(level - 1);
+
+		for (int cy = 0; cy < 2; cy++) {
+			for (int cx = 0; cx < 2; cx++) {
+				final long childX = 2 * tx + cx, childY = 2 * ty + cy;
+				if (childX * TILE >= below[0] || childY * TILE >= below[1]) continue;
+				final double[] child = tile(level - 1, childX, childY);
+				final int cw = tileWidth(level - 1, childX);
+				final int ch = tileHeight(level - 1, childY);
+				// offset of the child within the parent, in parent pixels
+				final int ox = cx * TILE / 2, oy = cy * TILE / 2;
+				for (int j = 0; j < ch; j++) {
+					final int row = (oy + j / 2) * tw;
+					for (int i = 0; i < cw; i++) {
+						final int p = row + ox + i / 2;
+						sums[p] += child[i + j * cw];
+						counts[p]++;
+					}
+				}
+			}
+		}
+		for (int p = 0; p < sums.length; p++) {
+			sums[p] /= counts[p];
+		}
+		return sums;
+	}
+
+	/** Gets the first plane of the image, with a zero origin. */
+	private RandomAccessibleInterval<? extends RealType<?>> plane() {
+		RandomAccessibleInterval<? extends RealType<?>> plane = image.get();
+		if (plane == null) throw new IllegalStateException("Image was disposed");
+		while (plane.numDimensions() > 2) {
+			final int d = plane.numDimensions() - 1;
+			plane = Views.hyperSlice(plane, d, plane.min(d));
+		}
+		return Views.zeroMin(plane);
+	}
+
+	private int tileWidth(final int level, final long tx) {
+		return (int) Math.min(TILE, levels.get(level)[0] - tx * TILE);
+	}
+
+	private int tileHeight(final int level, final long ty) {
+		return (int) Math.min(TILE, levels.get(level)[1] - ty * TILE);
+	}
+
+	private static double[] read(final File file) throws IOException {
+		final ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file
+			.toPath()));
+		final double[] tile = new double[bytes.capacity() / 8];
+		bytes.asDoubleBuffer().get(tile);
+		return tile;
+	}
+
+	private static void write(final File file, final double[] tile)
+		throws IOException
+	{
+		final ByteBuffer bytes = ByteBuffer.allocate(8 * tile.length);
+		bytes.asDoubleBuffer().put(tile);
+		Files.createDirectories(file.getParentFile().toPath());
+		Files.write(file.toPath(), bytes.array());
+	}
+}
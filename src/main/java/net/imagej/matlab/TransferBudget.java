@@ -0,0 +1,76 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Memory budget shared by conversions running in parallel. Each conversion
+ * reserves its estimated peak memory before starting, and waits while the
+ * conversions already running leave too little of the budget.
+ * <p>
+ * A conversion larger than the whole budget reserves all of it, and thus
+ * runs alone rather than never.
+ * </p>
+ */
+class TransferBudget {
+
+	/** Granularity of the reservations. */
+	private static final long UNIT = 1024 * 1024;
+
+	private final int total;
+
+	private final Semaphore permits;
+
+	TransferBudget(final long bytes) {
+		total = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / UNIT));
+		permits = new Semaphore(total, true);
+	}
+
+	/**
+	 * Reserves the given number of bytes, waiting until they are available.
+	 */
+	void acquire(final long bytes) throws InterruptedException {
+		permits.acquire(units(bytes));
+	}
+
+	/**
+	 * Releases bytes previously reserved with {@link #acquire(long)}.
+	 */
+	void release(final long bytes) {
+		permits.release(units(bytes));
+	}
+
+	// -- Helper methods --
+
+	private int units(final long bytes) {
+		return (int) Math.max(1, Math.min(total, (bytes + UNIT - 1) / UNIT));
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executor running conversions and transfers in the background,
+ * off the thread MATLAB calls from.
+ * <p>
+ * The executor runs at most a fixed number of tasks at a time, queuing the
+ * others, so that many transfers started at once do not compete for memory
+ * and cores. On JVMs supporting virtual threads, tasks run on virtual
+ * threads, which cost nothing while blocked on I/O or on MATLAB; otherwise
+ * they run on daemon platform threads. Idle threads are let go after a
+ * while.
+ * </p>
+ */
+class TransferExecutor {
+
+	/** Time after which idle threads are let go, in seconds. */
+	private static final long KEEP_ALIVE = 60;
+
+	private TransferExecutor() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Creates an executor running up to the given number of tasks at a time.
+	 */
+	static ExecutorService create(final int threads) {
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+			threads, KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+			threadFactory());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Gets the default number of tasks run at a time: one per core, and at
+	 * least two, so that the stages of a pipeline can run side by side.
+	 */
+	static int defaultThreads() {
+		return Math.max(2, Runtime.getRuntime().availableProcessors());
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets a factory of virtual threads if the JVM supports them, of daemon
+	 * platform threads otherwise.
+	 */
+	private static ThreadFactory threadFactory() {
+		try {
+			// Thread.ofVirtual().name(prefix, 0).factory(), from Java 21 on
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			final Method name = builderClass.getMethod("name", String.class,
+				long.class);
+			final Method factory = builderClass.getMethod("factory");
+			return (ThreadFactory) factory.invoke(name.invoke(builder,
+				"ImageJ-MATLAB-", 0L));
+		}
+		catch (final ReflectiveOperationException | RuntimeException exc) {
+			final AtomicInteger count = new AtomicInteger();
+			return runnable -> {
+				final Thread thread = new Thread(runnable, "ImageJ-MATLAB-" + count
+					.getAndIncrement());
+				thread.setDaemon(true);
+				return thread;
+			};
+		}
+	}
+}
@@ -19,7 +19,8 @@ function imp = copytoImagePlus(I,varargin)
 %
 %
 % INPUT ARGUMENTS
-% I           uint16 | uint8 | double | single
+% I           uint16 | uint8 | int16 | int8 | uint32 | int32 | uint64 |
+%             int64 | double | single | logical
 %             An array of integers to be opened with ImageJ. This array can
 %             have from 2 to 5 dimensions.
 %
@@ -71,12 +72,8 @@ function imp = copytoImagePlus(I,varargin)
 % https://imagej.net/MATLAB_Scripting
 
 
-import ij.process.ShortProcessor
-import ij.process.ByteProcessor
-import ij.process.FloatProcessor
-
 p = inputParser;
-p.addRequired('I',@(x) isnumeric(x));
+p.addRequired('I',@(x) isnumeric(x) || islogical(x));
 p.addOptional('dimorder','YXCZT',@(x) ischar(x) && isrow(x) ...
     && all(arrayfun(@(y) ismember(y,'XYCZT'),upper(x))) && length(x) >=2 ...
     && all(arrayfun(@(y) ismember(y,'XY'),upper(x(1:2))))...
@@ -92,147 +89,25 @@ frameinterval = p.Results.FrameInterval;
 
 
 
-switch dimorder(1:2)
-    case 'XY'
-        order1 = [1 2];
-    case 'YX'
-        order1 = [2 1];
-end
-
-
-switch dimorder(3:ndims(I))
-    case 'CZT'
-        order2 = 3:5;
-    case 'CTZ'
-        order2 = [3 5 4];
-    case 'ZCT'
-        order2 = [4 3 5];
-    case 'ZTC'
-        order2 = [4 5 3];
-    case 'TCZ'
-        order2 = [5 3 4];
-    case 'TZC'
-        order2 = [5 4 3];
-    case 'CZ'
-        order2 = [3 4];
-    case 'CT'
-        order2 = [3 5 4];
-    case 'ZC'
-        order2 = [4 3];
-    case 'ZT'
-        order2 = [5 3 4];        
-    case 'TC'
-        order2 = [4 5 3];
-    case 'TZ'
-        order2 = [5 4 3];
-    case 'C'
-        order2 = [3 4 5];
-    case 'Z'
-        order2 = [4 3 5];
-    case 'T'
-        order2 = [4 5 3];
-    otherwise
-        order2 = 3:5;
-end
-
-
-I0 = permute(I, [order1, order2]);
-
-nX = int32(size(I0,1));
-nY = int32(size(I0,2));
-nC = int32(size(I0,3)); 
-nZ = int32(size(I0,4));
-nT = int32(size(I0,5));
-
+% The hyperstack is built in Java in a single call, planes being reordered
+% according to dimorder and converted in parallel
 try
-    switch class(I0)
-        case 'uint8'
-            bitdepth = 8;
-
-        case 'int8'
-            
-            bitdepth = 8;
-            
-        case 'uint16'
-            
-            bitdepth = 16;
-            
-        case 'int16'
-            
-            bitdepth = 8;
-            
-        case 'uint32'
-            
-            bitdepth = 32;
-            
-        case 'int32'
-            
-            bitdepth = 32;
-            
-        case 'uint64'
-            error('MATLAB:copytoImg:UnsupportedType', ...
-                'uint64 is not supported.');
-        case 'int64'
-            error('MATLAB:copytoImg:UnsupportedType', ...
-                'uint64 is not supported.');
-        case 'single'
-            
-            bitdepth = 32;
-            
-        case 'double'
-            
-            bitdepth = 32;
-            
-        case 'logical'
-            
-            bitdepth = 8;
-
-        otherwise
-            error('MATLAB:copytoImg:UnsupportedType', ...
-                '%s is not supported.', class(I0));
-
+    if isa(I, 'logical') || isfloat(I)
+        imp = net.imagej.matlab.ImagePlusMATLAB.toImagePlus(newname, I(:), ...
+            int32(size(I)), dimorder);
+    else
+        imp = net.imagej.matlab.ImagePlusMATLAB.toImagePlus(newname, I(:), ...
+            int32(size(I)), dimorder, strncmp(class(I), 'uint', 4));
     end
-
 catch merr
     if strcmp(merr.identifier, 'MATLAB:undefinedVarOrClass')
-            error('MATLAB:copytoImg:undefinedVarOrClass', ...
-                'Could not find ImgLib2 on the path. Did you forget to run ''Miji(false)'' before calling this function?');
+            error('MATLAB:copytoImagePlus:undefinedVarOrClass', ...
+                'Could not find ImageJ-MATLAB on the path. Did you forget to run ''ImageJ'' before calling this function?');
     else
         rethrow(merr);
     end
 end
 
-
-imp = ij.IJ.createHyperStack(newname,nX,nY,nC,nZ,nT,bitdepth);
-
-for t = 1:nT
-    imp.setT(t);
-    for z = 1:nZ
-        imp.setZ(z);
-        for c = 1:nC
-            imp.setC(c);
-            
-            XY = I0(:,:,c,z,t);
-            xy = XY(:)';
-            
-            switch bitdepth
-                case 16
-                    ip = ShortProcessor(nX,nY);
-                    ip.setPixels(xy);
-                    imp.setProcessor(ip);
-                case 8
-                    ip = ByteProcessor(nX,nY);
-                    ip.setPixels(xy);
-                    imp.setProcessor(ip);
-                otherwise
-                    ip = FloatProcessor(nX,nY);
-                    ip.setPixels(single(xy));                  
-                    imp.setProcessor(ip);
-            end
-        end
-    end
-end
-
 imp.setT(1);
 imp.setZ(1);
 imp.setC(1);
@@ -6,8 +6,8 @@ function img = copytoImg(I)
 % The target image has its X ans Y axis permuted so that both images have
 % the same orientation in MATLAB and ImgLib2.
 %
-% This function supports all MATLAB primitive types but uint64 (unsigned
-% long integers).
+% This function supports all MATLAB primitive types, including 64-bit
+% integers, as well as logical arrays.
 % 
 % We rely on Miji to set up classpath, so you would have to add Miji to
 % your MATLAB path and call
@@ -24,52 +24,20 @@ function img = copytoImg(I)
 % see also: copytoImgPlus, copytoMatlab
 % Jean-Yves Tinevez - 2013
 
-% Permute dim 0 and 1 (X & Y) so that we match MATLAB convention in ImgLib
-I = permute(I, [2 1 3:ndims(I)]);
+if ~isnumeric(I) && ~islogical(I)
+    error('MATLAB:copytoImg:UnsupportedType', ...
+        '%s is not supported by Imglib2.', class(I));
+end
 
-% Copy to ImgLib2
 try
     
-    switch class(I)
-        
-        case 'uint8'
-            img = net.imglib2.img.array.ArrayImgs.unsignedBytes(I(:), size(I));
-            
-        case 'int8'
-            img = net.imglib2.img.array.ArrayImgs.bytes(I(:), size(I));
-            
-        case 'uint16'
-            img = net.imglib2.img.array.ArrayImgs.unsignedShorts(I(:), size(I));
-            
-        case 'int16'
-            img = net.imglib2.img.array.ArrayImgs.shorts(I(:), size(I));
-            
-        case 'uint32'
-            img = net.imglib2.img.array.ArrayImgs.unsignedInts(I(:), size(I));
-            
-        case 'int32'
-            img = net.imglib2.img.array.ArrayImgs.ints(I(:), size(I));
-            
-        case 'uint64'
-            error('MATLAB:copytoImg:UnsupportedType', ...
-                'uint64 is not supported by Imglib2.');
-            
-        case 'int64'
-            img = net.imglib2.img.array.ArrayImgs.shorts(I(:), size(I));
-            
-        case 'single'
-            img = net.imglib2.img.array.ArrayImgs.floats(I(:), size(I));
-            
-        case 'double'
-            img = net.imglib2.img.array.ArrayImgs.doubles(I(:), size(I));
-            
-        case 'logical'
-            img = net.imglib2.img.array.ArrayImgs.bits(I(:), size(I));
-            
-        otherwise
-            error('MATLAB:copytoImg:UnsupportedType', ...
-                '%s is not supported by Imglib2.', class(I));
-            
+    % Permute dim 0 and 1 (X & Y) while copying, so that we match MATLAB
+    % convention in ImgLib
+    if isinteger(I)
+        img = net.imagej.matlab.ImgMATLAB.toImg(I(:), size(I), ...
+            strncmp(class(I), 'uint', 4));
+    else
+        img = net.imagej.matlab.ImgMATLAB.toImg(I(:), size(I));
     end
     
 catch merr
@@ -83,4 +51,4 @@ catch merr
     
 end
 
-end
\ No newline at end of file
+end
@@ -0,0 +1,102 @@
+function [block, offset] = readN5Block(dataset, index)
+% readN5Block reads a single block of an N5 dataset, such as one written by
+% IJM.saveChunked, so that volumes too large for memory can be processed
+% block by block.
+%
+%
+% SYNTAX
+% block = readN5Block(dataset, index)
+% [block, offset] = readN5Block(dataset, index)
+%
+%
+% INPUT ARGUMENTS
+% dataset     char row vector
+%             Path of the N5 dataset directory, holding attributes.json.
+%
+% index       positive integer vector
+%             1-based position of the block in the grid of blocks, one
+%             value per dimension of the dataset.
+%
+%
+% OUTPUT ARGUMENTS
+% block       An array of the class of the dataset, with X along rows as
+%             for IJM.getDataset. Blocks at the border of the volume are
+%             smaller than the others, and missing blocks read as zeros.
+%
+% offset      1-based position of the first element of the block within
+%             the volume.
+%
+%
+% EXAMPLE
+% attrs = jsondecode(fileread(fullfile(dataset, 'attributes.json')));
+% grid = ceil(attrs.dimensions ./ attrs.blockSize);
+% for z = 1:grid(3)
+%     block = readN5Block(dataset, [1 1 z]);
+%     ...
+% end
+
+attrs = jsondecode(fileread(fullfile(dataset, 'attributes.json')));
+dims = attrs.dimensions(:)';
+blockSize = attrs.blockSize(:)';
+index = index(:)';
+if numel(index) ~= numel(dims) || any(index < 1) || ...
+        any((index - 1) .* blockSize >= dims)
+    error('MATLAB:readN5Block:IllegalArgument', ...
+        'No block at index [%s] in a dataset of size [%s].', ...
+        num2str(index), num2str(dims));
+end
+
+offset = (index - 1) .* blockSize + 1;
+cls = attrs.dataType;
+if strcmp(cls, 'float32')
+    cls = 'single';
+elseif strcmp(cls, 'float64')
+    cls = 'double';
+end
+
+file = dataset;
+for p = index - 1
+    file = fullfile(file, num2str(p));
+end
+if exist(file, 'file') ~= 2
+    block = zeros([min(blockSize, dims - offset + 1) 1], cls);
+    return;
+end
+
+%% Read the big-endian header, then the data
+
+fid = fopen(file, 'r', 'ieee-be');
+closer = onCleanup(@() fclose(fid));
+mode = fread(fid, 1, 'uint16');
+sz = fread(fid, fread(fid, 1, 'uint16'), 'int32')';
+if mode == 1
+    fread(fid, 1, 'int32'); % element count of varlength blocks
+end
+data = fread(fid, Inf, 'uint8=>uint8');
+
+if isfield(attrs, 'compression')
+    compression = attrs.compression.type;
+else
+    compression = attrs.compressionType;
+end
+if strcmp(compression, 'gzip')
+    in = java.util.zip.GZIPInputStream(java.io.ByteArrayInputStream(data));
+    out = java.io.ByteArrayOutputStream();
+    copier = com.mathworks.mlwidgets.io.InterruptibleStreamCopier ...
+        .getInterruptibleStreamCopier();
+    copier.copyStream(in, out);
+    in.close();
+    data = typecast(out.toByteArray(), 'uint8');
+elseif ~strcmp(compression, 'raw')
+    error('MATLAB:readN5Block:UnsupportedCompression', ...
+        'Unsupported N5 compression: %s.', compression);
+end
+
+block = typecast(data(:), cls);
+[~, ~, endian] = computer;
+if endian == 'L'
+    block = swapbytes(block);
+end
+block = reshape(block(1:prod(sz)), [sz 1]);
+
+end
@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link BufferPool}.
+ */
+public class BufferPoolTest {
+
+	@Test
+	public void testTakeReleased() {
+		final BufferPool pool = new BufferPool(1000);
+		final double[] buffer = new double[10];
+		assertNull(pool.take(double[].class, new long[] { 10 }));
+
+		pool.release(double[].class, buffer, new long[] { 10 }, 80);
+		assertNull(pool.take(double[].class, new long[] { 5, 2 }));
+		assertNull(pool.take(float[].class, new long[] { 10 }));
+		assertSame(buffer, pool.take(double[].class, new long[] { 10 }));
+		assertNull(pool.take(double[].class, new long[] { 10 }));
+	}
+
+	@Test
+	public void testDoubleRelease() {
+		final BufferPool pool = new BufferPool(1000);
+		final double[] buffer = new double[10];
+		pool.release(double[].class, buffer, new long[] { 10 }, 80);
+		pool.release(double[].class, buffer, new long[] { 10 }, 80);
+		assertEquals(80, pool.bytes());
+
+		assertSame(buffer, pool.take(double[].class, new long[] { 10 }));
+		assertNull(pool.take(double[].class, new long[] { 10 }));
+	}
+
+	@Test
+	public void testBudget() {
+		final BufferPool pool = new BufferPool(100);
+		pool.release(byte[].class, new byte[101], new long[] { 101 }, 101);
+		assertEquals(0, pool.bytes());
+		assertNull(pool.take(byte[].class, new long[] { 101 }));
+
+		pool.release(byte[].class, new byte[30], new long[] { 30 }, 30);
+		pool.release(byte[].class, new byte[30], new long[] { 30 }, 30);
+		assertEquals(60, pool.bytes());
+		pool.take(byte[].class, new long[] { 30 });
+		assertEquals(30, pool.bytes());
+
+		pool.clear();
+		assertEquals(0, pool.bytes());
+		assertNull(pool.take(byte[].class, new long[] { 30 }));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		final BufferPool pool = new BufferPool(100);
+		final byte[] a = new byte[40], b = new byte[40], c = new byte[40];
+		pool.release(byte[].class, a, new long[] { 1 }, 40);
+		pool.release(byte[].class, b, new long[] { 2 }, 40);
+
+		// reusing the first shape makes the second one the eldest
+		assertSame(a, pool.take(byte[].class, new long[] { 1 }));
+		pool.release(byte[].class, a, new long[] { 1 }, 40);
+		pool.release(byte[].class, c, new long[] { 3 }, 40);
+
+		assertEquals(80, pool.bytes());
+		assertNull(pool.take(byte[].class, new long[] { 2 }));
+		assertSame(a, pool.take(byte[].class, new long[] { 1 }));
+		assertSame(c, pool.take(byte[].class, new long[] { 3 }));
+		assertEquals(0, pool.bytes());
+	}
+}
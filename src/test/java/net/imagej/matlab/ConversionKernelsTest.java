@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import net.imagej.ImgPlus;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link ConversionKernels}.
+ */
+public class ConversionKernelsTest {
+
+	@Test
+	public void testSaturation() {
+		final double[] src = { -10, 300, 255.4, 128 };
+		final byte[] dest = new byte[src.length];
+		ConversionKernels.convert(src, false, 0, dest, true, 0, src.length, 1, 0);
+		assertArrayEquals(new byte[] { 0, (byte) 255, (byte) 255, (byte) 128 },
+			dest);
+
+		final short[] signed = new short[src.length];
+		ConversionKernels.convert(src, false, 0, signed, false, 0, src.length,
+			200, 0);
+		assertArrayEquals(new short[] { -2000, Short.MAX_VALUE, Short.MAX_VALUE,
+			25600 }, signed);
+	}
+
+	@Test
+	public void testRounding() {
+		// half away from zero, as MATLAB does
+		final double[] src = { 0.5, 1.5, -0.5, -1.5, 2.4999, -2.5001 };
+		final byte[] dest = new byte[src.length];
+		ConversionKernels.convert(src, false, 0, dest, false, 0, src.length, 1, 0);
+		assertArrayEquals(new byte[] { 1, 2, -1, -2, 2, -3 }, dest);
+	}
+
+	@Test
+	public void testNaN() {
+		final float[] src = { Float.NaN, 1 };
+		final int[] dest = { 7, 7 };
+		ConversionKernels.convert(src, false, 0, dest, false, 0, src.length, 1, 0);
+		assertArrayEquals(new int[] { 0, 1 }, dest);
+
+		final double[] floating = new double[src.length];
+		ConversionKernels.convert(src, false, 0, floating, false, 0, src.length,
+			1, 0);
+		assertEquals(Double.NaN, floating[0], 0);
+	}
+
+	@Test
+	public void testUnsignedLong() {
+		// 2^64 - 1 is stored as -1
+		final long[] src = { -1, Long.MIN_VALUE, 5 };
+		final double[] dest = new double[src.length];
+		ConversionKernels.convert(src, true, 0, dest, false, 0, src.length, 1, 0);
+		assertArrayEquals(new double[] { 0x1p64, 0x1p63, 5 }, dest, 0);
+
+		final double[] values = { 1e19, 1e20, -1, 0x1p63 };
+		final long[] wrapped = new long[values.length];
+		ConversionKernels.convert(values, false, 0, wrapped, true, 0,
+			values.length, 1, 0);
+		// 1e20 saturates to the largest double below 2^64, i.e. 2^64 - 2048
+		assertArrayEquals(new long[] { -8446744073709551616L, -2048, 0,
+			Long.MIN_VALUE }, wrapped);
+	}
+
+	@Test
+	public void testOffsets() {
+		final short[] src = { 1, 2, 3, 4 };
+		final double[] dest = new double[5];
+		ConversionKernels.convert(src, false, 1, dest, false, 2, 3, 2, 1);
+		assertArrayEquals(new double[] { 0, 0, 5, 7, 9 }, dest, 0);
+	}
+
+	@Test
+	public void testNormalizeInteger() {
+		final short[] data = { 0, (short) 65535, (short) 32768 };
+		final ImgPlus<UnsignedShortType> image = new ImgPlus<>(ArrayImgs
+			.unsignedShorts(data, 3, 1));
+		final double[] normalization = ConversionKernels.normalization(image,
+			"single");
+		assertArrayEquals(new double[] { 1 / 65535.0, 0 }, normalization, 1e-15);
+
+		final MATLABTypedArray dest = ConversionKernels.convert(image,
+			MATLABTypedArray.allocate("single", new long[] { 3, 1 }),
+			normalization[0], normalization[1]);
+		assertArrayEquals(new float[] { 0, 1, 32768 / 65535f }, (float[]) dest
+			.getData(), 1e-7f);
+	}
+
+	@Test
+	public void testNormalizeFloatingPoint() {
+		// the range of floating point images is that of their values
+		final double[] data = { 2, 6, 4, 3 };
+		final double[] normalization = ConversionKernels.normalization(ArrayImgs
+			.doubles(data, 2, 2), "uint8");
+		assertArrayEquals(new double[] { 255 / 4.0, -2 * 255 / 4.0 },
+			normalization, 1e-12);
+
+		// wrapped images are read from their storage all the same
+		final MATLABTypedArray dest = ConversionKernels.convert(new ImgPlus<>(
+			ArrayImgs.doubles(data, 2, 2)), MATLABTypedArray.allocate("uint8",
+				new long[] { 2, 2 }), normalization[0], normalization[1]);
+		assertArrayEquals(new byte[] { 0, (byte) 255, (byte) 128, 64 },
+			(byte[]) dest.getData());
+	}
+}
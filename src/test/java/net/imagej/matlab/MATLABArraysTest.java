@@ -0,0 +1,248 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import matlabcontrol.extensions.MatlabNumericArray;
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.LongArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.complex.ComplexDoubleType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link MATLABArrays}.
+ */
+public class MATLABArraysTest {
+
+	@Test
+	public void testTranspose() {
+		// column-major 2 x 3: [1 3 5; 2 4 6]
+		final int[] src = { 1, 2, 3, 4, 5, 6 };
+		final int[] expected = { 1, 3, 5, 2, 4, 6 };
+		assertArrayEquals(expected, (int[]) MATLABArrays.transpose(src, 2, 3));
+	}
+
+	@Test
+	public void testTransposeLarge() {
+		// larger than a tile, with partial tiles along both edges
+		final int rows = 75, cols = 41;
+		final double[] src = new double[rows * cols];
+		for (int i = 0; i < src.length; i++) {
+			src[i] = i;
+		}
+		final double[] dest = (double[]) MATLABArrays.transpose(src, rows, cols);
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				if (dest[c + r * cols] != src[r + c * rows]) {
+					throw new AssertionError("Mismatch at " + r + ", " + c);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPermute() {
+		final long[] dims = { 2, 3, 4 };
+		final int[] order = { 2, 0, 1 };
+		final short[] src = new short[24];
+		for (int i = 0; i < src.length; i++) {
+			src[i] = (short) i;
+		}
+
+		final short[] dest = (short[]) MATLABArrays.permute(src, dims, order);
+		assertArrayEquals(new long[] { 4, 2, 3 }, MATLABArrays.permute(dims,
+			order));
+		for (int x = 0; x < 2; x++) {
+			for (int y = 0; y < 3; y++) {
+				for (int z = 0; z < 4; z++) {
+					if (dest[z + 4 * (x + 2 * y)] != src[x + 2 * (y + 3 * z)]) {
+						throw new AssertionError("Mismatch at " + x + ", " + y + ", " + z);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testPermuteKeepingLeadingDimensions() {
+		final long[] dims = { 2, 2, 2 };
+		final byte[] src = { 0, 1, 2, 3, 4, 5, 6, 7 };
+		final byte[] expected = { 0, 1, 4, 5, 2, 3, 6, 7 };
+		assertArrayEquals(expected, (byte[]) MATLABArrays.permute(src, dims,
+			new int[] { 0, 2, 1 }));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPermuteInvalidOrder() {
+		MATLABArrays.permute(new long[] { 2, 3 }, new int[] { 0, 0 });
+	}
+
+	@Test
+	public void testPlaneChecksums() {
+		final double[] data = new double[3 * 2 * 4];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = i % 6;
+		}
+		final ArrayImg<DoubleType, DoubleArray> image = ArrayImgs.doubles(data, 3,
+			2, 4);
+
+		// planes of equal content have equal checksums
+		final long[] before = MATLABArrays.planeChecksums(image);
+		assertEquals(4, before.length);
+		assertEquals(before[0], before[3]);
+		assertArrayEquals(new int[0], MATLABArrays.changedPlanes(before,
+			MATLABArrays.planeChecksums(image)));
+
+		// only the modified planes are selected, including sign changes of zero
+		data[2 * 6 + 5] = 42;
+		data[3 * 6] = -0.0;
+		assertArrayEquals(new int[] { 2, 3 }, MATLABArrays.changedPlanes(before,
+			MATLABArrays.planeChecksums(image)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testChangedPlanesOfDifferentImages() {
+		MATLABArrays.changedPlanes(new long[2], new long[3]);
+	}
+
+	@Test
+	public void testBitsAcrossWordBoundaries() {
+		for (final int length : new int[] { 63, 64, 65 }) {
+			final boolean[] values = new boolean[length];
+			for (int i = 0; i < length; i++) {
+				values[i] = i % 3 == 0 || i == length - 1;
+			}
+
+			final ArrayImg<BitType, LongArray> bits = MATLABArrays.toBitImg(values,
+				length);
+			final Cursor<BitType> cursor = bits.cursor();
+			for (int i = 0; i < length; i++) {
+				assertEquals("Bit " + i + " of " + length, values[i], cursor.next()
+					.get());
+			}
+
+			// stale values of a reused array are overwritten
+			final boolean[] reused = new boolean[length];
+			Arrays.fill(reused, true);
+			MATLABArrays.copy(bits, new MATLABTypedArray(reused, new long[] {
+				length }, false));
+			assertArrayEquals(values, reused);
+		}
+	}
+
+	@Test
+	public void testPlanarBits() {
+		// planes of 65 bits, each starting a new word
+		final PlanarImg<BitType, LongArray> bits = PlanarImgs.bits(5, 13, 3);
+		final boolean[] expected = new boolean[5 * 13 * 3];
+		final Cursor<BitType> cursor = bits.cursor();
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = i % 7 == 0 || i % 65 == 64;
+			cursor.next().set(expected[i]);
+		}
+
+		final MATLABTypedArray array = MATLABArrays.toTypedArray(bits);
+		assertEquals("logical", array.getMATLABClass());
+		assertArrayEquals(expected, (boolean[]) array.getData());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBitImgSizeMismatch() {
+		MATLABArrays.toBitImg(new boolean[7], 2, 3);
+	}
+
+	@Test
+	public void testComplexRoundTrip() {
+		final double[] real = { 1, -2, 3.5, 0, 5, 6 };
+		final double[] imag = { 0.5, 0, -1, 2, Double.NaN, -6 };
+		final MatlabNumericArray array = MATLABArrays.toNumericArray(real, imag,
+			new int[] { 3, 2 });
+
+		final ArrayImg<ComplexDoubleType, DoubleArray> img = MATLABArrays
+			.toComplexImg(array);
+		assertArrayEquals(new long[] { 3, 2 }, Intervals.dimensionsAsLongArray(
+			img));
+		final Cursor<ComplexDoubleType> cursor = img.cursor();
+		for (int i = 0; i < real.length; i++) {
+			final ComplexDoubleType value = cursor.next();
+			assertEquals(real[i], value.getRealDouble(), 0);
+			assertEquals(imag[i], value.getImaginaryDouble(), 0);
+		}
+
+		assertComplex(real, imag, MATLABArrays.toComplexArray(img));
+		// views are read element by element rather than from storage
+		assertComplex(real, imag, MATLABArrays.toComplexArray(Views.interval(img,
+			img)));
+	}
+
+	@Test
+	public void testComplexOfRealArray() {
+		final double[] real = { 1, 2, 3, 4 };
+		final ArrayImg<ComplexDoubleType, DoubleArray> img = MATLABArrays
+			.toComplexImg(MATLABArrays.toNumericArray(real, null, new int[] { 4 }));
+		assertComplex(real, new double[4], MATLABArrays.toComplexArray(img));
+	}
+
+	@Test
+	public void testComplexFloatStorage() {
+		final float[] storage = { 1, 2, 3, 4, 5, 6 };
+		final ArrayImg<ComplexFloatType, ?> img = ArrayImgs.complexFloats(storage,
+			3);
+		assertComplex(new double[] { 1, 3, 5 }, new double[] { 2, 4, 6 },
+			MATLABArrays.toComplexArray(img));
+	}
+
+	// -- Helper methods --
+
+	private static void assertComplex(final double[] real, final double[] imag,
+		final MatlabNumericArray array)
+	{
+		assertEquals(real.length, array.getLength());
+		for (int i = 0; i < real.length; i++) {
+			assertEquals("Real " + i, real[i], array.getRealValue(i), 0);
+			assertEquals("Imaginary " + i, imag[i], array.getImaginaryValue(i), 0);
+		}
+	}
+}
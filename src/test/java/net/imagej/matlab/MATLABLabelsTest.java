@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.FloatPolygon;
+
+import java.util.List;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link MATLABLabels}.
+ */
+public class MATLABLabelsTest {
+
+	@Test
+	public void testLabelRoundTrip() {
+		// column-major 4 x 3, labels 2, 7 and 9 with gaps and a repeated run
+		final byte[] labels = { 0, 7, 7, 0, 2, 0, 9, 2, 7, 0, 0, 9 };
+		final long[] dims = { 4, 3 };
+
+		final MATLABLabels.Regions regions = MATLABLabels.encode(ArrayImgs
+			.unsignedBytes(labels, dims));
+		assertArrayEquals(new double[] { 2, 7, 9 }, regions.labels, 0);
+		assertArrayEquals(new double[] { 2, 3, 2 }, regions.counts, 0);
+		// sorted 1-based linear indices, label by label
+		assertArrayEquals(new double[] { 5, 8, 2, 3, 9, 7, 12 }, regions.indices,
+			0);
+
+		// decoding numbers the regions 1, 2, 3 in the order of their labels
+		final Img<? extends RealType<?>> decoded = MATLABLabels.decode(
+			regions.indices, regions.counts, dims);
+		final double[] expected = { 0, 2, 2, 0, 1, 0, 3, 1, 2, 0, 0, 3 };
+		final Cursor<? extends RealType<?>> cursor = decoded.cursor();
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("Pixel " + i, expected[i], cursor.next().getRealDouble(),
+				0);
+		}
+	}
+
+	@Test
+	public void testEmptyLabels() {
+		final MATLABLabels.Regions regions = MATLABLabels.encode(ArrayImgs
+			.unsignedShorts(3, 2));
+		assertEquals(0, regions.labels.length);
+		assertEquals(0, regions.indices.length);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDecodeOutOfBounds() {
+		MATLABLabels.decode(new double[] { 1, 7 }, new double[] { 2 },
+			new long[] { 2, 3 });
+	}
+
+	@Test
+	public void testRoiRoundTrip() {
+		final Roi triangle = new PolygonRoi(new float[] { 1, 5, 3 }, new float[] {
+			2, 2, 6 }, 3, Roi.POLYGON);
+		triangle.setName("first\nsecond line");
+		final Roi square = new PolygonRoi(new float[] { 10, 12, 12, 10 },
+			new float[] { 10, 10, 12, 12 }, 4, Roi.POLYGON);
+
+		final MATLABLabels.Polygons polygons = MATLABLabels.encode(new Roi[] {
+			triangle, square });
+		assertArrayEquals(new String[] { "first\nsecond line", "" },
+			polygons.names);
+		assertArrayEquals(new double[] { 3, 4 }, polygons.counts, 0);
+
+		final List<Roi> rois = MATLABLabels.decode(polygons.xs, polygons.ys,
+			polygons.counts);
+		assertEquals(2, rois.size());
+		assertPolygon(triangle.getFloatPolygon(), rois.get(0).getFloatPolygon());
+		assertPolygon(square.getFloatPolygon(), rois.get(1).getFloatPolygon());
+	}
+
+	private static void assertPolygon(final FloatPolygon expected,
+		final FloatPolygon actual)
+	{
+		assertEquals(expected.npoints, actual.npoints);
+		for (int p = 0; p < expected.npoints; p++) {
+			assertEquals(expected.xpoints[p], actual.xpoints[p], 1e-6);
+			assertEquals(expected.ypoints[p], actual.ypoints[p], 1e-6);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import net.imglib2.img.array.ArrayImgs;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link MATLABSparseMatrix}.
+ */
+public class MATLABSparseMatrixTest {
+
+	@Test
+	public void testDuplicatesAreSummed() {
+		final MATLABSparseMatrix matrix = MATLABSparseMatrix.fromTriplets(
+			new double[] { 1, 2, 1 }, new double[] { 1, 1, 1 }, new double[] { 1, 3,
+				2 }, 2, 2);
+		assertEquals(2, matrix.nonZeros());
+		assertEquals(3, matrix.get(0, 0), 0);
+		assertEquals(3, matrix.get(1, 0), 0);
+		assertEquals(0, matrix.get(0, 1), 0);
+	}
+
+	@Test
+	public void testZerosAreDropped() {
+		// an explicit zero, and duplicates cancelling out
+		final MATLABSparseMatrix matrix = MATLABSparseMatrix.fromTriplets(
+			new double[] { 1, 1, 2, 2 }, new double[] { 2, 2, 1, 2 }, new double[] {
+				4, -4, 0, 5 }, 2, 2);
+		assertEquals(1, matrix.nonZeros());
+		assertArrayEquals(new double[] { 2 }, matrix.getRowTriplets(), 0);
+		assertArrayEquals(new double[] { 2 }, matrix.getColumnTriplets(), 0);
+		assertArrayEquals(new double[] { 5 }, matrix.getValues(), 0);
+	}
+
+	@Test
+	public void testColumnMajorOrder() {
+		final MATLABSparseMatrix matrix = MATLABSparseMatrix.fromTriplets(
+			new double[] { 3, 1, 2, 1 }, new double[] { 2, 2, 1, 1 }, new double[] {
+				1, 2, 3, 4 }, 3, 2);
+		assertArrayEquals(new double[] { 1, 2, 1, 3 }, matrix.getRowTriplets(), 0);
+		assertArrayEquals(new double[] { 1, 1, 2, 2 }, matrix.getColumnTriplets(),
+			0);
+		assertArrayEquals(new double[] { 4, 3, 2, 1 }, matrix.getValues(), 0);
+	}
+
+	@Test
+	public void testEmptyColumns() {
+		final MATLABSparseMatrix matrix = MATLABSparseMatrix.fromTriplets(
+			new double[] { 2 }, new double[] { 3 }, new double[] { 7 }, 2, 4);
+		assertEquals(7, matrix.get(1, 2), 0);
+		assertEquals(0, matrix.get(1, 3), 0);
+		assertArrayEquals(new double[] { 3 }, matrix.getColumnTriplets(), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutOfBounds() {
+		MATLABSparseMatrix.fromTriplets(new double[] { 3 }, new double[] { 1 },
+			new double[] { 1 }, 2, 2);
+	}
+
+	@Test
+	public void testFromImage() {
+		// column-major 3 x 2: [0 5; 2 0; 0 6]
+		final MATLABSparseMatrix matrix = MATLABSparseMatrix.fromImage(ArrayImgs
+			.doubles(new double[] { 0, 2, 0, 5, 0, 6 }, 3, 2));
+		assertArrayEquals(new double[] { 2, 1, 3 }, matrix.getRowTriplets(), 0);
+		assertArrayEquals(new double[] { 1, 2, 2 }, matrix.getColumnTriplets(),
+			0);
+		assertArrayEquals(new double[] { 2, 5, 6 }, matrix.getValues(), 0);
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link N5Chunks}.
+ */
+public class N5ChunksTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testGzipRoundTrip() throws IOException {
+		// border blocks along every dimension, and values beyond signed shorts
+		final short[] data = new short[5 * 7 * 3];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (short) (i * 997);
+		}
+		final RandomAccessibleInterval<UnsignedShortType> image = ArrayImgs
+			.unsignedShorts(data, 5, 7, 3);
+		final File dir = folder.newFolder("gzip.n5");
+
+		N5Chunks.write(image, dir, new long[] { 2, 3, 2 }, "gzip", executor);
+		final RandomAccessibleInterval<? extends RealType<?>> read = N5Chunks.open(
+			dir);
+
+		assertTrue(Util.getTypeFromInterval(read) instanceof UnsignedShortType);
+		assertEqualImages(image, read);
+	}
+
+	@Test
+	public void testRawRoundTrip() throws IOException {
+		// missing block sizes default to 1
+		final double[] data = { 0.5, -1, 2, 1e300, Double.NaN, 3, -0.0, 7, 8, 9,
+			10, 11 };
+		final RandomAccessibleInterval<DoubleType> image = ArrayImgs.doubles(data,
+			4, 3);
+		final File dir = folder.newFolder("raw.n5");
+
+		N5Chunks.write(image, dir, new long[] { 3 }, "raw", executor);
+		final RandomAccessibleInterval<? extends RealType<?>> read = N5Chunks.open(
+			dir);
+
+		assertTrue(Util.getTypeFromInterval(read) instanceof DoubleType);
+		assertEqualImages(image, read);
+		assertTrue(new File(dir, "1/2").isFile());
+	}
+
+	@Test
+	public void testReadBorderBlock() throws IOException {
+		final byte[] data = new byte[5 * 7];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) (i + 1);
+		}
+		final File dir = folder.newFolder("border.n5");
+		N5Chunks.write(ArrayImgs.unsignedBytes(data, 5, 7), dir, new long[] { 2,
+			3 }, "raw", executor);
+
+		// the last block along X is stored 1 x 3 wide, and padded with zeros
+		final byte[] padded = new byte[6];
+		assertTrue(N5Chunks.readBlock(dir, new long[] { 2, 0 }, false, padded,
+			new int[] { 2, 3 }));
+		assertArrayEquals(new byte[] { data[4], 0, data[9], 0, data[14], 0 },
+			padded);
+
+		// the corner block holds a single pixel
+		final byte[] corner = new byte[6];
+		assertTrue(N5Chunks.readBlock(dir, new long[] { 2, 2 }, false, corner,
+			new int[] { 2, 3 }));
+		assertArrayEquals(new byte[] { data[34], 0, 0, 0, 0, 0 }, corner);
+
+		// blocks larger than requested are cropped
+		final byte[] cropped = new byte[2];
+		assertTrue(N5Chunks.readBlock(dir, new long[] { 0, 0 }, false, cropped,
+			new int[] { 1, 2 }));
+		assertArrayEquals(new byte[] { data[0], data[5] }, cropped);
+
+		assertFalse(N5Chunks.readBlock(dir, new long[] { 9, 9 }, false,
+			new byte[6], new int[] { 2, 3 }));
+	}
+
+	private static void assertEqualImages(
+		final RandomAccessibleInterval<? extends RealType<?>> expected,
+		final RandomAccessibleInterval<? extends RealType<?>> actual)
+	{
+		assertArrayEquals(Intervals.dimensionsAsLongArray(expected), Intervals
+			.dimensionsAsLongArray(actual));
+		final Cursor<? extends RealType<?>> e = Views.flatIterable(expected)
+			.cursor();
+		final Cursor<? extends RealType<?>> a = Views.flatIterable(actual)
+			.cursor();
+		for (int i = 0; e.hasNext(); i++) {
+			assertEquals("Element " + i, e.next().getRealDouble(), a.next()
+				.getRealDouble(), 0);
+		}
+	}
+}
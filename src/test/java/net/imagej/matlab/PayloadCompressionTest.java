@@ -0,0 +1,159 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.matlab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Array;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link PayloadCompression}.
+ */
+public class PayloadCompressionTest {
+
+	/** Enough elements of any type to be worth compressing. */
+	private static final int N = PayloadCompression.MIN_BYTES;
+
+	@Test
+	public void testBytes() {
+		final byte[] data = new byte[N];
+		for (int i = 0; i < N; i++) {
+			data[i] = (byte) (i / 100);
+		}
+		assertArrayEquals(data, (byte[]) roundTrip(data, 1));
+	}
+
+	@Test
+	public void testShorts() {
+		final short[] data = new short[N];
+		for (int i = 0; i < N; i++) {
+			data[i] = (short) (i / 10 - 1000);
+		}
+		assertArrayEquals(data, (short[]) roundTrip(data, 2));
+	}
+
+	@Test
+	public void testInts() {
+		final int[] data = new int[N];
+		for (int i = 0; i < N; i++) {
+			data[i] = i * 3 - 70000;
+		}
+		assertArrayEquals(data, (int[]) roundTrip(data, 4));
+	}
+
+	@Test
+	public void testLongs() {
+		final long[] data = new long[N];
+		for (int i = 0; i < N; i++) {
+			data[i] = (long) i << 20;
+		}
+		assertArrayEquals(data, (long[]) roundTrip(data, 8));
+	}
+
+	@Test
+	public void testFloats() {
+		final float[] data = new float[N];
+		for (int i = 0; i < N; i++) {
+			data[i] = (i % 512) * 0.5f;
+		}
+		assertArrayEquals(data, (float[]) roundTrip(data, 4), 0);
+	}
+
+	@Test
+	public void testDoubles() {
+		final double[] data = new double[N];
+		for (int i = 0; i < N; i++) {
+			data[i] = Math.floor(1000 * Math.sin(i / 1000.0));
+		}
+		assertArrayEquals(data, (double[]) roundTrip(data, 8), 0);
+	}
+
+	@Test
+	public void testBooleans() {
+		final boolean[] data = new boolean[N];
+		for (int i = 0; i < N; i++) {
+			data[i] = i % 1000 < 300;
+		}
+		final byte[] bytes = PayloadCompression.inflate(compress(data, 1));
+		assertEquals(N, bytes.length);
+		for (int i = 0; i < N; i++) {
+			assertEquals("Element " + i, data[i], bytes[i] != 0);
+		}
+	}
+
+	@Test
+	public void testSmallPayload() {
+		final int[] data = new int[PayloadCompression.MIN_BYTES / 4 - 1];
+		assertNull(PayloadCompression.compress(data));
+		assertNotNull(PayloadCompression.compress(new int[data.length + 1]));
+	}
+
+	@Test
+	public void testIncompressiblePayload() {
+		final byte[] data = new byte[N];
+		new Random(0xdecaf).nextBytes(data);
+		assertNull(PayloadCompression.compress(data));
+	}
+
+	// -- Helper methods --
+
+	/** Compresses, inflates and decodes the given array. */
+	private static Object roundTrip(final Object data, final int size) {
+		final byte[] bytes = PayloadCompression.inflate(compress(data, size));
+		final int length = Array.getLength(data);
+		assertEquals(length * size, bytes.length);
+		final Object decoded = Array.newInstance(data.getClass()
+			.getComponentType(), length);
+		SCIFIOArrayReader.decode(bytes, ByteOrder.LITTLE_ENDIAN, decoded, 0,
+			length);
+		return decoded;
+	}
+
+	private static PayloadCompression.Payload compress(final Object data,
+		final int size)
+	{
+		final PayloadCompression.Payload payload = PayloadCompression.compress(
+			data);
+		assertNotNull(payload);
+		assertTrue(payload.shuffle == 1 || payload.shuffle == size);
+		assertTrue(payload.bytes.length <= PayloadCompression.MAX_RATIO * size *
+			Array.getLength(data));
+		return payload;
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.matlab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import matlabcontrol.extensions.MatlabNumericArray;
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.Cursor;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+
+/**
+ * Tests {@link PlaneAppender}.
+ */
+public class PlaneAppenderTest {
+
+	private Context context;
+
+	private DatasetService datasetService;
+
+	@Before
+	public void setUp() {
+		context = new Context(DatasetService.class);
+		datasetService = context.service(DatasetService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testAccepts() {
+		// 2 x 2 arrays with 3 pages, stacked along a fourth axis
+		final PlaneAppender appender = PlaneAppender.create(new int[] { 2, 2,
+			3 });
+		assertTrue(appender.accepts(new int[] { 2, 2, 3 }));
+		assertTrue(appender.accepts(new int[] { 2, 2, 3, 5 }));
+		assertFalse(appender.accepts(new int[] { 2, 2 }));
+		assertFalse(appender.accepts(new int[] { 2, 2, 4 }));
+		assertFalse(appender.accepts(new int[] { 2, 3, 3 }));
+		assertFalse(appender.accepts(new int[] { 2, 2, 3, 2, 2 }));
+
+		// 2D arrays accept trailing singletons
+		final PlaneAppender plain = PlaneAppender.create(new int[] { 3, 2 });
+		assertTrue(plain.accepts(new int[] { 3, 2, 1, 1 }));
+		assertTrue(plain.accepts(new int[] { 3, 2, 4 }));
+	}
+
+	@Test
+	public void testAppendSteps() {
+		final PlaneAppender appender = PlaneAppender.create(new int[] { 3, 2 });
+		assertEquals(1, appender.append(array(0, 3, 2)));
+		// several steps at once
+		assertEquals(3, appender.append(array(6, 3, 2, 2)));
+
+		final Dataset dataset = appender.createDataset(datasetService, "steps",
+			Axes.TIME);
+		assertArrayEquals(new long[] { 3, 2, 3 }, Intervals
+			.dimensionsAsLongArray(dataset));
+		assertEquals(Axes.TIME, dataset.axis(2).type());
+		assertValues(dataset, 18);
+	}
+
+	@Test
+	public void testAppendPages() {
+		final PlaneAppender appender = PlaneAppender.create(new int[] { 2, 2,
+			3 });
+		assertEquals(1, appender.append(array(0, 2, 2, 3)));
+		assertEquals(3, appender.append(array(12, 2, 2, 3, 2)));
+
+		final Dataset dataset = appender.createDataset(datasetService, "pages",
+			Axes.TIME);
+		assertArrayEquals(new long[] { 2, 2, 3, 3 }, Intervals
+			.dimensionsAsLongArray(dataset));
+		assertValues(dataset, 36);
+	}
+
+	@Test
+	public void testWrap() {
+		final Dataset dataset = datasetService.create(new DoubleType(),
+			new long[] { 3, 2, 2 }, "wrapped", new AxisType[] { Axes.X, Axes.Y,
+				Axes.TIME });
+		double v = 0;
+		for (final RealType<?> t : Views.flatIterable(dataset)) {
+			t.setReal(v++);
+		}
+
+		final PlaneAppender appender = PlaneAppender.wrap(dataset);
+		assertTrue(appender.accepts(new int[] { 3, 2 }));
+		assertEquals(4, appender.append(array(12, 3, 2, 2)));
+		appender.update(dataset);
+
+		assertArrayEquals(new long[] { 3, 2, 4 }, Intervals
+			.dimensionsAsLongArray(dataset));
+		assertEquals("wrapped", dataset.getName());
+		assertEquals(Axes.TIME, dataset.axis(2).type());
+		assertValues(dataset, 24);
+	}
+
+	@Test
+	public void testWrapOtherType() {
+		// appending doubles would change the type of the image
+		final Dataset dataset = datasetService.create(new UnsignedByteType(),
+			new long[] { 3, 2, 2 }, "bytes", new AxisType[] { Axes.X, Axes.Y,
+				Axes.TIME });
+		assertNull(PlaneAppender.wrap(dataset));
+	}
+
+	// -- Helper methods --
+
+	/** Creates a MATLAB array of consecutive values from the given one. */
+	private static MatlabNumericArray array(final double first,
+		final int... lengths)
+	{
+		int length = 1;
+		for (final int l : lengths) {
+			length *= l;
+		}
+		final double[] values = new double[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = first + i;
+		}
+		return MATLABArrays.toNumericArray(values, null, lengths);
+	}
+
+	/** Checks that the image holds 0, 1, 2, ... in flat iteration order. */
+	private static void assertValues(final Dataset dataset, final int count) {
+		final Cursor<RealType<?>> cursor = Views.flatIterable(dataset).cursor();
+		for (int i = 0; i < count; i++) {
+			assertEquals("Element " + i, i, cursor.next().getRealDouble(), 0);
+		}
+		assertFalse(cursor.hasNext());
+	}
+}
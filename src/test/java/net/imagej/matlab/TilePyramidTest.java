@@ -0,0 +1,203 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2022 ImageJ2 developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+
+package net.imagej.matlab;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.type.numeric.real.DoubleType;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link TilePyramid}.
+ */
+public class TilePyramidTest {
+
+	/** Odd sizes, neither a multiple of the tile size. */
+	private static final int WIDTH = 601, HEIGHT = 515;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testLevels() {
+		final TilePyramid pyramid = new TilePyramid(image(), TilePyramid.CACHE_BYTES,
+			null);
+		assertEquals(3, pyramid.levelCount());
+		assertDimensions(WIDTH, HEIGHT, pyramid.dimensions(0));
+		assertDimensions(301, 258, pyramid.dimensions(1));
+		assertDimensions(151, 129, pyramid.dimensions(2));
+	}
+
+	@Test
+	public void testFullResolution() throws IOException {
+		final ArrayImg<DoubleType, DoubleArray> image = image();
+		final TilePyramid pyramid = new TilePyramid(image, TilePyramid.CACHE_BYTES,
+			null);
+		// spans four tiles, up to the bottom right corner
+		assertRegion(pixels(image), pyramid.region(0, 200, 250, WIDTH - 200,
+			HEIGHT - 250), 200, 250);
+	}
+
+	@Test
+	public void testDownsample() throws IOException {
+		final TilePyramid pyramid = new TilePyramid(image(), TilePyramid.CACHE_BYTES,
+			null);
+		assertMeans(pyramid);
+	}
+
+	@Test
+	public void testDiskCache() throws IOException {
+		final File dir = new File(folder.getRoot(), "tiles");
+		// room for a single tile, so that all others are read back from disk
+		final TilePyramid pyramid = new TilePyramid(image(), 8L * TilePyramid.TILE *
+			TilePyramid.TILE, dir);
+		assertMeans(pyramid);
+		assertTrue(dir.list().length > 0);
+		assertMeans(pyramid);
+
+		pyramid.dispose();
+		assertFalse(dir.exists());
+	}
+
+	@Test
+	public void testClipping() throws IOException {
+		final ArrayImg<DoubleType, DoubleArray> image = image();
+		final TilePyramid pyramid = new TilePyramid(image, TilePyramid.CACHE_BYTES,
+			null);
+		final double[][] pixels = pixels(image);
+
+		final double[][] corner = pyramid.region(0, -10, -20, 30, 40);
+		assertEquals(20, corner.length);
+		assertEquals(20, corner[0].length);
+		assertRegion(pixels, corner, 0, 0);
+
+		final double[][] edge = pyramid.region(0, WIDTH - 5, 100, 50, 3);
+		assertEquals(5, edge.length);
+		assertEquals(3, edge[0].length);
+		assertRegion(pixels, edge, WIDTH - 5, 100);
+
+		assertEquals(0, pyramid.region(0, WIDTH, 0, 10, 10).length);
+		assertEquals(0, pyramid.region(2, -50, 0, 10, 10).length);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingLevel() throws IOException {
+		new TilePyramid(image(), TilePyramid.CACHE_BYTES, null).region(3, 0, 0, 1,
+			1);
+	}
+
+	// -- Helper methods --
+
+	private static ArrayImg<DoubleType, DoubleArray> image() {
+		final ArrayImg<DoubleType, DoubleArray> image = ArrayImgs.doubles(WIDTH,
+			HEIGHT);
+		final Random random = new Random(0xdecaf);
+		for (final DoubleType t : image) {
+			t.set(random.nextDouble() * 1000);
+		}
+		return image;
+	}
+
+	private static double[][] pixels(final ArrayImg<DoubleType, ?> image) {
+		final double[][] pixels = new double[WIDTH][HEIGHT];
+		final Cursor<DoubleType> cursor = image.localizingCursor();
+		while (cursor.hasNext()) {
+			final double value = cursor.next().get();
+			pixels[cursor.getIntPosition(0)][cursor.getIntPosition(1)] = value;
+		}
+		return pixels;
+	}
+
+	/** Checks each level against the direct 2x2 mean of the level below. */
+	private static void assertMeans(final TilePyramid pyramid)
+		throws IOException
+	{
+		for (int level = 1; level < pyramid.levelCount(); level++) {
+			final long[] below = pyramid.dimensions(level - 1);
+			final double[][] pixels = pyramid.region(level - 1, 0, 0,
+				(int) below[0], (int) below[1]);
+			final long[] dims = pyramid.dimensions(level);
+			final double[][] expected = new double[(int) dims[0]][(int) dims[1]];
+			for (int x = 0; x < dims[0]; x++) {
+				for (int y = 0; y < dims[1]; y++) {
+					double sum = 0;
+					int count = 0;
+					for (int j = 2 * y; j < Math.min(2 * y + 2, below[1]); j++) {
+						for (int i = 2 * x; i < Math.min(2 * x + 2, below[0]); i++) {
+							sum += pixels[i][j];
+							count++;
+						}
+					}
+					expected[x][y] = sum / count;
+				}
+			}
+			// the whole level, then a region across the tile borders
+			assertRegion(expected, pyramid.region(level, 0, 0, (int) dims[0],
+				(int) dims[1]), 0, 0);
+			if (dims[0] > TilePyramid.TILE || dims[1] > TilePyramid.TILE) {
+				assertRegion(expected, pyramid.region(level, TilePyramid.TILE - 7,
+					TilePyramid.TILE - 3, 20, 10), TilePyramid.TILE - 7,
+					TilePyramid.TILE - 3);
+			}
+		}
+	}
+
+	private static void assertRegion(final double[][] expected,
+		final double[][] region, final int x, final int y)
+	{
+		for (int i = 0; i < region.length; i++) {
+			for (int j = 0; j < region[i].length; j++) {
+				assertEquals("(" + (x + i) + ", " + (y + j) + ")", expected[x + i][y +
+					j], region[i][j], 1e-9);
+			}
+		}
+	}
+
+	private static void assertDimensions(final long width, final long height,
+		final long[] dims)
+	{
+		assertEquals(width, dims[0]);
+		assertEquals(height, dims[1]);
+	}
+}